@@ -40,4 +40,24 @@ public class ReeferAppConfig {
 
     public static final String PackingAlgoStrategy = "simple";
 
+    // Strategy used by depots to pick reefers for an order. The "freelist" strategy
+    // takes reefers from a per-depot bitset of free inventory slots. The "random"
+    // strategy probes the inventory at random indexes. The "contiguous" strategy
+    // takes best fit runs of consecutive free reefer ids so that order reefer
+    // lists encode as a few id ranges.
+    public static final String ReeferAllocationStrategy = "freelist";
+
+    // Minimum interval between depot metrics updates sent to the DepotManager. Metrics
+    // changed within the interval are coalesced and published when it expires.
+    public static final long DepotMetricsPublishIntervalMillis = 1000;
+
+    // Number of reefer location changes the AnomalyManager journals before it
+    // compacts them into a new snapshot of all reefer locations.
+    public static final int AnomalyManagerJournalMaxEntries = 500;
+
+    // Number of anomaly-manager actor instances. With more than one, each instance
+    // tracks a contiguous range of reefer ids aligned with depot shard boundaries
+    // and its id is AnomalyManagerId suffixed with the shard index.
+    public static final int AnomalyManagerShardCount = 1;
+
 }
\ No newline at end of file
@@ -22,12 +22,13 @@ import com.ibm.research.kar.actor.annotations.Actor;
 import com.ibm.research.kar.actor.annotations.Remote;
 import com.ibm.research.kar.reefer.ReeferAppConfig;
 import com.ibm.research.kar.reefer.common.Constants;
+import com.ibm.research.kar.reefer.common.ReeferIdSet;
+import com.ibm.research.kar.reefer.common.ReeferLocationTable;
 import com.ibm.research.kar.reefer.common.ReeferLoggerFormatter;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
 import javax.json.*;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,7 +39,8 @@ public class AnomalyManagerActor extends BaseActor {
    private int REPLACE = 3;
    private int ROLLBACK = 4;
 
-   private Map<String, ReeferLocation> reefersMap = null;
+   // location of each reefer indexed by reefer id
+   private ReeferLocationTable locations = null;
    // Map supporting lookup of depot enum value given its name
    private Map<String, JsonValue> depotEnumMap = new LinkedHashMap<>();
    // Map supporting lookup of depot name given its enum value
@@ -47,6 +49,15 @@ public class AnomalyManagerActor extends BaseActor {
    private Map<String, JsonValue> vesselEnumMap = new LinkedHashMap<>();
    // Map supporting lookup of ship's name given its enum value
    private Map<Integer, String> reverseVesselEnumMap = new LinkedHashMap<>();
+   // sequence number of the next reefer location journal entry
+   private int journalSequence = 0;
+   // reefers whose anomaly bounced before their location update arrived
+   private ReeferIdSet parkedAnomalies = new ReeferIdSet();
+   private static final int MAX_PARKED_ANOMALIES = 100000;
+   // anomaly routing counters
+   private long routedAnomalies = 0;
+   private long misroutedAnomalies = 0;
+   private long parkedAnomalyCount = 0;
    private static Logger logger = ReeferLoggerFormatter.getFormattedLogger(AnomalyManagerActor.class.getName());
 
    @Activate
@@ -82,6 +93,21 @@ public class AnomalyManagerActor extends BaseActor {
                String reeferTargets = ((JsonString) state.get(Constants.REEFERS_KEY)).getString();
                instantiateReeferTargetMap(reeferTargets);
             }
+            int epoch = 0;
+            if (state.containsKey(Constants.ANOMALY_EPOCH_KEY)) {
+               epoch = ((JsonNumber) state.get(Constants.ANOMALY_EPOCH_KEY)).intValue();
+            }
+            if (state.containsKey(Constants.REEFER_LOCATION_JOURNAL_KEY) && locations != null) {
+               epoch = Math.max(epoch, replayJournal(state.get(Constants.REEFER_LOCATION_JOURNAL_KEY).asJsonObject()));
+            }
+            if (locations != null) {
+               // anomalies routed before the restart carry epochs up to the saved one
+               locations.restoreEpoch(Math.max(epoch, locations.epoch()));
+            }
+            if (state.containsKey(Constants.ANOMALY_PARKED_KEY)) {
+               // released when their location updates arrive
+               parkedAnomalies = ReeferIdSet.decode(((JsonString) state.get(Constants.ANOMALY_PARKED_KEY)).getString());
+            }
          }
       } catch (Throwable t) {
          String stacktrace = ExceptionUtils.getStackTrace(t).replaceAll("\n", "");
@@ -93,7 +119,6 @@ public class AnomalyManagerActor extends BaseActor {
    }
 
    private void instantiateReeferTargetMap(String reeferTargets) {
-      reefersMap = new LinkedHashMap<>();
       // ReeferLocation instances are restored from a stringified list where
       // each entry is encoded as follows: <REEFERID:int>|<DEPOTID:int>|<TYPE:int>
       // where TYPE[1,2] 1: Depot, 2: VOYAGE. Example:
@@ -102,27 +127,26 @@ public class AnomalyManagerActor extends BaseActor {
       if (reeferTargets != null) {
          long t1 = System.currentTimeMillis();
          String[] targets = reeferTargets.split(",");
+         locations = new ReeferLocationTable(targets.length);
 
          for (String target : targets) {
             String[] props = target.split("\\|");
-            ReeferLocation rl = null;
 
             if (Constants.DEPOT_TARGET_TYPE == Integer.parseInt(props[2])) {
-               // use reverseDepotEnumMap to decode depot name using depot enum value
-               rl = new ReeferLocation(Integer.parseInt(props[0]), reverseDepotEnumMap.get(Integer.parseInt(props[1])), Integer.parseInt(props[2]));
+               // the depot enum value is the depot ordinal in the location table
+               locations.setDepot(Integer.parseInt(props[0]), Integer.parseInt(props[1]));
             } else if (Constants.VOYAGE_TARGET_TYPE == Integer.parseInt(props[2])) {
                // voyage is stored persistently as [enum value(int):date(string)]
                String[] voyageParts = props[1].split(":");
                String voyage = reverseVesselEnumMap.get(Integer.parseInt(voyageParts[0].trim())) + ":" + voyageParts[1];
-               rl = new ReeferLocation(Integer.parseInt(props[0]), voyage, Integer.parseInt(props[2]));
+               locations.setVoyage(Integer.parseInt(props[0]), voyage);
             } else {
                throw new IllegalStateException("AnomalyManagerActor.instantiateReeferTargetMap() - unexpected reefer target type:" + Integer.parseInt(props[2]) +
                        " - should be either " + Constants.DEPOT_TARGET_TYPE + " or " + Constants.VOYAGE_TARGET_TYPE);
             }
-            reefersMap.put(props[0], rl);
          }
          if (logger.isLoggable(Level.FINEST)) {
-            logger.finest("AnomalyManagerActor.instantiateReeferTargetMap() - time to instantiate reeferMap from state took:" + (System.currentTimeMillis() - t1) + " size:" + reefersMap.size());
+            logger.finest("AnomalyManagerActor.instantiateReeferTargetMap() - time to instantiate reeferMap from state took:" + (System.currentTimeMillis() - t1) + " size:" + locations.size());
          }
       } else {
          if (logger.isLoggable(Level.WARNING)) {
@@ -132,14 +156,97 @@ public class AnomalyManagerActor extends BaseActor {
 
    }
 
+   /**
+    * Applies journaled reefer location changes, in order, on top of the restored snapshot.
+    *
+    * @param journal - journal entries keyed by sequence number
+    * @return - epoch of the last journaled change
+    */
+   private int replayJournal(Map<String, JsonValue> journal) {
+      long t1 = System.currentTimeMillis();
+      int replayed = 0;
+      int epoch = 0;
+      TreeMap<Integer, JsonValue> entries = new TreeMap<>();
+      journal.forEach((sequence, entry) -> entries.put(Integer.parseInt(sequence), entry));
+      for (Map.Entry<Integer, JsonValue> entry : entries.entrySet()) {
+         JsonObject change = entry.getValue().asJsonObject();
+         String target = change.getString(Constants.ANOMALY_TARGET_KEY);
+         int targetType = change.getInt(Constants.ANOMALY_TARGET_TYPE_KEY);
+         for (int reeferId : ReeferIdSet.decode(change.getString(Constants.REEFERS_KEY)).toArray()) {
+            setLocation(reeferId, target, targetType);
+            replayed++;
+         }
+         epoch = Math.max(epoch, change.getInt(Constants.ANOMALY_EPOCH_KEY, 0));
+         journalSequence = entry.getKey() + 1;
+      }
+      if (logger.isLoggable(Level.INFO)) {
+         logger.info("AnomalyManagerActor.replayJournal() - replayed " + entries.size() + " journal entries with " + replayed +
+                 " reefer location changes in " + (System.currentTimeMillis() - t1));
+      }
+      return epoch;
+   }
+
+   /**
+    * Appends reefer location change to the journal together with the location epoch and
+    * the parked anomalies. The journal is compacted into a new snapshot once it reaches
+    * ReeferAppConfig.AnomalyManagerJournalMaxEntries.
+    *
+    * @param target - new location of the reefers
+    * @param targetType - location type, depot or voyage
+    * @param reeferIds - reefers which moved
+    */
+   private void journal(String target, int targetType, ReeferIdSet reeferIds) {
+      if (journalSequence + 1 >= ReeferAppConfig.AnomalyManagerJournalMaxEntries) {
+         saveSnapshot(serializeReefers());
+         return;
+      }
+      JsonObject change = Json.createObjectBuilder().
+              add(Constants.ANOMALY_TARGET_KEY, target).
+              add(Constants.ANOMALY_TARGET_TYPE_KEY, targetType).
+              add(Constants.REEFERS_KEY, reeferIds.encode()).
+              add(Constants.ANOMALY_EPOCH_KEY, locations.epoch()).build();
+      Map<String, JsonValue> actorStateMap = new HashMap<>();
+      actorStateMap.put(Constants.ANOMALY_PARKED_KEY, Json.createValue(parkedAnomalies.encode()));
+      Map<String, Map<String, JsonValue>> subMapUpdates = new HashMap<>();
+      subMapUpdates.put(Constants.REEFER_LOCATION_JOURNAL_KEY, Collections.singletonMap(String.valueOf(journalSequence++), change));
+      Kar.Actors.State.update(this, Collections.emptyList(), Collections.emptyMap(), actorStateMap, subMapUpdates);
+   }
+
+   /**
+    * Replaces the snapshot of all reefer locations, the location epoch and the parked
+    * anomalies and drops the journal in a single state update.
+    *
+    * @param reeferTargets - serialized reefer locations
+    */
+   private void saveSnapshot(String reeferTargets) {
+      Map<String, List<String>> subMapRemovals = new HashMap<>();
+      if (journalSequence > 0) {
+         List<String> journalKeys = new ArrayList<>(journalSequence);
+         for (int sequence = 0; sequence < journalSequence; sequence++) {
+            journalKeys.add(String.valueOf(sequence));
+         }
+         subMapRemovals.put(Constants.REEFER_LOCATION_JOURNAL_KEY, journalKeys);
+      }
+      Map<String, JsonValue> actorStateMap = new HashMap<>();
+      actorStateMap.put(Constants.REEFERS_KEY, Json.createValue(reeferTargets));
+      actorStateMap.put(Constants.ANOMALY_EPOCH_KEY, Json.createValue(locations.epoch()));
+      actorStateMap.put(Constants.ANOMALY_PARKED_KEY, Json.createValue(parkedAnomalies.encode()));
+      Kar.Actors.State.update(this, Collections.emptyList(), subMapRemovals, actorStateMap, Collections.emptyMap());
+      journalSequence = 0;
+   }
+
    @Remote
    public void depotReefers(JsonObject depotReefers) {
       long t = System.currentTimeMillis();
       try {
          JsonArray ja = depotReefers.getJsonArray(Constants.DEPOTS_KEY);
          int totalCount = depotReefers.getInt(Constants.TOTAL_REEFER_COUNT_KEY);
+         // in sharded mode this instance tracks only reefers within its id range
+         int lowerBound = depotReefers.getInt(Constants.ANOMALY_SHARD_LOWER_BOUND_KEY, 0);
+         int upperBound = depotReefers.getInt(Constants.ANOMALY_SHARD_UPPER_BOUND_KEY, totalCount - 1);
          StringBuilder sb = new StringBuilder();
-         reefersMap = new LinkedHashMap<>(totalCount);
+         int previousEpoch = locations == null ? 0 : locations.epoch();
+         locations = new ReeferLocationTable(upperBound + 1);
          int depotEnumValue = 1;
          for (JsonValue depot : ja) {
             long t1 = System.currentTimeMillis();
@@ -147,15 +254,18 @@ public class AnomalyManagerActor extends BaseActor {
             depotEnumMap.put(target, Json.createValue(depotEnumValue));
             reverseDepotEnumMap.put(depotEnumValue, target);
             for (JsonValue jsonShard : depot.asJsonObject().getJsonArray(Constants.SHARDS_KEY)) {
-               int lower = jsonShard.asJsonObject().getInt("reefer-id-lower-bound");
-               int upper = jsonShard.asJsonObject().getInt("reefer-id-upper-bound");
-
-               sb.append(createReefers(target, depotEnumValue, lower, upper));
+               int lower = Math.max(lowerBound, jsonShard.asJsonObject().getInt("reefer-id-lower-bound"));
+               int upper = Math.min(upperBound, jsonShard.asJsonObject().getInt("reefer-id-upper-bound"));
+               if (lower <= upper) {
+                  sb.append(createReefers(target, depotEnumValue, lower, upper));
+               }
             }
             depotEnumValue++;
          }
          long t2 = System.currentTimeMillis();
-         Kar.Actors.State.set(this, Constants.REEFERS_KEY, Json.createValue(sb.toString()));
+         // epochs never go back so that anomalies routed before are not taken as current
+         locations.restoreEpoch(previousEpoch + locations.epoch());
+         saveSnapshot(sb.toString());
          Kar.Actors.State.Submap.set(this, Constants.TARGET_MAP_KEY, depotEnumMap);
          if (logger.isLoggable(Level.FINEST)) {
             logger.log(Level.FINEST,"AnomalyManagerActor.depotReefers() - saved depot reefers - total time:" + (System.currentTimeMillis() - t2) + " state size (KB):" + (sb.length() / 1024));
@@ -172,7 +282,7 @@ public class AnomalyManagerActor extends BaseActor {
       try {
          for (int reeferId = lowerRange; reeferId <= upperRange; reeferId++) {
             sb.append(reeferId).append("|").append(depotId).append("|").append(Constants.DEPOT_TARGET_TYPE).append(",");
-            reefersMap.put(String.valueOf(reeferId), new ReeferLocation(reeferId, depot, ReeferLocation.LocationType.DEPOT.getType()));
+            locations.setDepot(reeferId, depotId);
          }
       } catch (Exception e) {
          String stacktrace = ExceptionUtils.getStackTrace(e).replaceAll("\n", "");
@@ -184,29 +294,31 @@ public class AnomalyManagerActor extends BaseActor {
    private String serializeReefers() {
       StringBuilder sb = new StringBuilder();
 
-      for (String reeferId : reefersMap.keySet()) {
-         ReeferLocation reeferLocation = reefersMap.get(reeferId);
+      for (int reeferId = 0; reeferId < locations.capacity(); reeferId++) {
+         int targetType = locations.targetType(reeferId);
+         if (targetType == ReeferLocationTable.UNKNOWN) {
+            continue;
+         }
          sb.append(reeferId).append("|");
-         if (Constants.DEPOT_TARGET_TYPE == reeferLocation.getTargetType()) {
+         if (Constants.DEPOT_TARGET_TYPE == targetType) {
             // to reduce space in persistent storage use enum value for each depot name.
-            JsonValue depotId = depotEnumMap.get(reeferLocation.getTarget());
-            sb.append(((JsonNumber) depotId).intValue());
-         } else if (Constants.VOYAGE_TARGET_TYPE == reeferLocation.getTargetType()) {
+            sb.append(locations.depot(reeferId));
+         } else if (Constants.VOYAGE_TARGET_TYPE == targetType) {
             try {
-               String[] voyageParts = reeferLocation.getTarget().split(":");
+               String[] voyageParts = locations.voyage(reeferId).split(":");
                JsonValue jv = vesselEnumMap.get(voyageParts[0]);
                sb.append(((JsonNumber) jv).intValue()).append(":").append(voyageParts[1]);
             } catch (Exception e) {
                logger.log(Level.WARNING,
-                       String.format("AnomalyManagerActor.serializeReefers() - failed serializing voyage - target: %s reeferId:", reeferLocation.getTarget(), reeferId));
+                       String.format("AnomalyManagerActor.serializeReefers() - failed serializing voyage - target: %s reeferId: %d", locations.voyage(reeferId), reeferId));
                throw e;
             }
          } else {
             logger.log(Level.SEVERE,
-                    String.format("AnomalyManagerActor.serializeReefers() - unable to determine enumeration value for target:" + reeferLocation.getTarget()));
-            throw new IllegalStateException("AnomalyManager.serializeReefers() - unable to determine enumeration value for target:" + reeferLocation.getTarget());
+                    "AnomalyManagerActor.serializeReefers() - unexpected target type:" + targetType + " reeferId:" + reeferId);
+            throw new IllegalStateException("AnomalyManager.serializeReefers() - unexpected target type:" + targetType + " reeferId:" + reeferId);
          }
-         sb.append("|").append(reeferLocation.getTargetType()).append(",");
+         sb.append("|").append(targetType).append(",");
       }
       return sb.toString();
    }
@@ -214,40 +326,151 @@ public class AnomalyManagerActor extends BaseActor {
    @Remote
    public void reeferAnomaly(JsonObject message) {
       try {
-         String reeferId = String.valueOf(message.getInt(Constants.REEFER_ID_KEY));
-         if (reefersMap.containsKey(reeferId)) {
-            ReeferLocation target = reefersMap.get(reeferId);
-            int targetType = target.getTargetType();
-            ;
+         routeAnomalies(ReeferIdSet.of(message.getInt(Constants.REEFER_ID_KEY)), message);
+      } catch (Exception e) {
+         String stacktrace = ExceptionUtils.getStackTrace(e).replaceAll("\n", "");
+         logger.log(Level.SEVERE, "AnomalyManagerActor.reeferAnomaly() " + stacktrace);
+      }
+   }
+
+   /**
+    * Batched version of reeferAnomaly. Reefers are grouped by their current location
+    * and each depot and voyage receives a single reeferAnomalies message.
+    *
+    * @param message - encoded reefer ids and optional Constants.DATE_KEY
+    */
+   @Remote
+   public void reeferAnomalies(JsonObject message) {
+      try {
+         routeAnomalies(ReeferIdSet.decode(message.getString(Constants.REEFERS_KEY)), message);
+      } catch (Exception e) {
+         String stacktrace = ExceptionUtils.getStackTrace(e).replaceAll("\n", "");
+         logger.log(Level.SEVERE, "AnomalyManagerActor.reeferAnomalies() " + stacktrace);
+      }
+   }
+
+   /**
+    * @return - counts of routed, misrouted and parked reefer anomalies since activation
+    */
+   @Remote
+   public JsonObject anomalyRoutingMetrics() {
+      return Json.createObjectBuilder().
+              add("routed", routedAnomalies).
+              add("misrouted", misroutedAnomalies).
+              add("parked", parkedAnomalyCount).
+              add("parked-now", parkedAnomalies.size()).build();
+   }
+
+   /**
+    * Forwards anomalies to the depots and voyages holding the reefers, one message per
+    * target. Each message carries the current location epoch. A target which no longer
+    * holds a reefer sends the anomaly back with that epoch. If the reefer moved since,
+    * the anomaly is routed to its new location. Otherwise the location update is still
+    * in flight and the anomaly is parked until it arrives. Either way the anomaly takes
+    * at most one extra hop.
+    *
+    * @param reefers - anomalous reefers
+    * @param message - original message
+    */
+   private void routeAnomalies(ReeferIdSet reefers, JsonObject message) {
+      boolean bounced = message.containsKey(Constants.ANOMALY_EPOCH_KEY);
+      int routedEpoch = message.getInt(Constants.ANOMALY_EPOCH_KEY, 0);
+      int parked = 0;
+      Map<Integer, ReeferIdSet> depotReefers = new HashMap<>();
+      Map<String, ReeferIdSet> voyageReefers = new HashMap<>();
+      int notFound = 0;
+      for (int reeferId : reefers.toArray()) {
+         int targetType = locations.targetType(reeferId);
+         if (targetType == ReeferLocationTable.UNKNOWN) {
+            notFound++;
+            continue;
+         }
+         if (bounced) {
+            misroutedAnomalies++;
+            if (locations.epoch(reeferId) <= routedEpoch) {
+               if (park(reeferId)) {
+                  parked++;
+               }
+               continue;
+            }
+         } else if (message.containsKey(Constants.TARGET_KEY) && message.getInt(Constants.TARGET_KEY) != targetType) {
             // if a message contains value with key Constants.TARGET_KEY it means that the target (depot or voyage) received anomaly
             // but it no longer has the reefer and anomaly was sent back. To avoid sending the anomaly there again just
             // drop it.
-            if (message.containsKey(Constants.TARGET_KEY) && message.getInt(Constants.TARGET_KEY) != target.targetType) {
-               return;
-            }
-            ActorRef targetActor;
-            switch (targetType) {
-               case Constants.DEPOT_TARGET_TYPE:
-                  targetActor = Kar.Actors.ref(ReeferAppConfig.DepotActorType, target.getTarget());
-                  Kar.Actors.tell(targetActor, "reeferAnomaly", message);
-                  break;
-               case Constants.VOYAGE_TARGET_TYPE:
-                  targetActor = Kar.Actors.ref(ReeferAppConfig.VoyageActorType, target.getTarget());
-                  Kar.Actors.tell(targetActor, "reeferAnomaly", message);
-                  break;
-               default:
-                  logger.log(Level.WARNING,
-                          String.format("AnomalyManagerActor.reeferAnomaly() --------------------------- reeferId: %s unknown target type:", reeferId, target.getTargetType()));
-
-            }
+            continue;
+         }
+         if (targetType == Constants.DEPOT_TARGET_TYPE) {
+            depotReefers.computeIfAbsent(locations.depot(reeferId), depot -> new ReeferIdSet()).add(reeferId);
          } else {
-            logger.log(Level.WARNING,
-                    "AnomalyManagerActor.reeferAnomaly() - !!!!!!!!!!! reeferId:" + reeferId + " Not Found in inventory");
+            voyageReefers.computeIfAbsent(locations.voyage(reeferId), voyage -> new ReeferIdSet()).add(reeferId);
          }
-      } catch (Exception e) {
-         String stacktrace = ExceptionUtils.getStackTrace(e).replaceAll("\n", "");
-         logger.log(Level.SEVERE, "AnomalyManagerActor.reeferAnomaly() " + stacktrace);
       }
+      for (Map.Entry<Integer, ReeferIdSet> entry : depotReefers.entrySet()) {
+         ActorRef depotActor = Kar.Actors.ref(ReeferAppConfig.DepotActorType, reverseDepotEnumMap.get(entry.getKey()));
+         Kar.Actors.tell(depotActor, "reeferAnomalies", batch(message, entry.getValue()));
+      }
+      for (Map.Entry<String, ReeferIdSet> entry : voyageReefers.entrySet()) {
+         ActorRef voyageActor = Kar.Actors.ref(ReeferAppConfig.VoyageActorType, entry.getKey());
+         Kar.Actors.tell(voyageActor, "reeferAnomalies", batch(message, entry.getValue()));
+      }
+      if (parked > 0) {
+         // parked anomalies survive a restart of this actor
+         Kar.Actors.State.set(this, Constants.ANOMALY_PARKED_KEY, Json.createValue(parkedAnomalies.encode()));
+      }
+      routedAnomalies += reefers.size() - notFound;
+      if (notFound > 0 && logger.isLoggable(Level.WARNING)) {
+         logger.warning("AnomalyManagerActor.routeAnomalies() - " + notFound + " of " + reefers.size() + " reefers not found in inventory");
+      }
+   }
+
+   private boolean park(int reeferId) {
+      if (parkedAnomalies.size() >= MAX_PARKED_ANOMALIES) {
+         logger.log(Level.WARNING, "AnomalyManagerActor.park() - too many parked anomalies - dropping anomaly of reeferId:" + reeferId);
+         return false;
+      }
+      parkedAnomalies.add(reeferId);
+      parkedAnomalyCount++;
+      return true;
+   }
+
+   /**
+    * @param reeferIds - reefers which moved
+    * @return - reefers whose anomalies were parked until they moved
+    */
+   private ReeferIdSet unpark(ReeferIdSet reeferIds) {
+      ReeferIdSet released = new ReeferIdSet();
+      if (!parkedAnomalies.isEmpty()) {
+         reeferIds.forEach(reeferId -> {
+            if (parkedAnomalies.remove(reeferId)) {
+               released.add(reeferId);
+            }
+         });
+      }
+      return released;
+   }
+
+   /**
+    * Forwards anomalies of reefers released from parking to their new location.
+    *
+    * @param target - new location of the reefers
+    * @param targetType - location type, depot or voyage
+    * @param released - reefers released by unpark()
+    */
+   private void forwardParkedAnomalies(String target, int targetType, ReeferIdSet released) {
+      if (released.isEmpty()) {
+         return;
+      }
+      String actorType = Constants.DEPOT_TARGET_TYPE == targetType ? ReeferAppConfig.DepotActorType : ReeferAppConfig.VoyageActorType;
+      Kar.Actors.tell(Kar.Actors.ref(actorType, target), "reeferAnomalies", batch(JsonValue.EMPTY_JSON_OBJECT, released));
+   }
+
+   private JsonObject batch(JsonObject message, ReeferIdSet reefers) {
+      JsonObjectBuilder job = Json.createObjectBuilder().add(Constants.REEFERS_KEY, reefers.encode()).
+              add(Constants.ANOMALY_EPOCH_KEY, locations.epoch());
+      if (message.containsKey(Constants.DATE_KEY)) {
+         job.add(Constants.DATE_KEY, message.get(Constants.DATE_KEY));
+      }
+      return job.build();
    }
 
    @Remote
@@ -278,22 +501,23 @@ public class AnomalyManagerActor extends BaseActor {
          long t = System.currentTimeMillis();
          String anomalyTarget = message.getJsonString(Constants.ANOMALY_TARGET_KEY).getString();
          int targetType = message.getInt(Constants.ANOMALY_TARGET_TYPE_KEY);
-         String reeferIds = message.getJsonString(Constants.REEFERS_KEY).getString();
+         ReeferIdSet rids = ReeferIdSet.decode(message.getJsonString(Constants.REEFERS_KEY).getString());
          String voyageId = message.getJsonString(Constants.VOYAGE_ID_KEY).getString();
 
-         String[] rids = reeferIds.split(",");
          String event = getEventTypeAsString(eventType);
          if (eventType == ARRIVAL) {
-            handleArrivals(voyageId, anomalyTarget, targetType);
+            rids = handleArrivals(voyageId, anomalyTarget, targetType);
          } else {
-            for (String reeferId : rids) {
-               ReeferLocation targetLocation = reefersMap.get(reeferId);
-               targetLocation.setTarget(anomalyTarget);
-               targetLocation.setTargetType(targetType);
+            for (int reeferId : rids.toArray()) {
+               setLocation(reeferId, anomalyTarget, targetType);
             }
          }
-         String serializedReeferTargets = serializeReefers();
-         Kar.Actors.State.set(this, Constants.REEFERS_KEY, Json.createValue(serializedReeferTargets));
+         // persist only the reefers which moved
+         if (!rids.isEmpty()) {
+            ReeferIdSet released = unpark(rids);
+            journal(anomalyTarget, targetType, rids);
+            forwardParkedAnomalies(anomalyTarget, targetType, released);
+         }
       } catch (Exception e) {
          String stacktrace = ExceptionUtils.getStackTrace(e).replaceAll("\n", "");
          logger.log(Level.SEVERE, "AnomalyManagerActor.update() - Error: " + stacktrace);
@@ -315,14 +539,25 @@ public class AnomalyManagerActor extends BaseActor {
       return event;
    }
 
-   private void handleArrivals(String voyageId, String anomalyTarget, int targetType) {
-      reefersMap.values().forEach(targetLocation -> {
-         if (targetLocation.getTargetType() == ReeferLocation.LocationType.VOYAGE.getType()
-                 && targetLocation.getTarget().equals(voyageId)) {
-            targetLocation.setTarget(anomalyTarget);
-            targetLocation.setTargetType(targetType);
+   private ReeferIdSet handleArrivals(String voyageId, String anomalyTarget, int targetType) {
+      // only reefers on the arrived voyage are visited
+      int[] arrived = locations.voyageReefers(voyageId);
+      for (int reeferId : arrived) {
+         setLocation(reeferId, anomalyTarget, targetType);
+      }
+      return ReeferIdSet.of(arrived);
+   }
+
+   private void setLocation(int reeferId, String target, int targetType) {
+      if (Constants.DEPOT_TARGET_TYPE == targetType) {
+         JsonValue depotId = depotEnumMap.get(target);
+         if (depotId == null) {
+            throw new IllegalStateException("AnomalyManagerActor.setLocation() - unknown depot:" + target);
          }
-      });
+         locations.setDepot(reeferId, ((JsonNumber) depotId).intValue());
+      } else {
+         locations.setVoyage(reeferId, target);
+      }
    }
 
    public static class ReeferLocation {
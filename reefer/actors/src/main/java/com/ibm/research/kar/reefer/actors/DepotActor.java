@@ -23,17 +23,14 @@ import com.ibm.research.kar.actor.annotations.Actor;
 import com.ibm.research.kar.actor.annotations.Remote;
 import com.ibm.research.kar.reefer.ReeferAppConfig;
 import com.ibm.research.kar.reefer.common.*;
+import com.ibm.research.kar.reefer.common.time.EpochDay;
 import com.ibm.research.kar.reefer.model.JsonOrder;
 import com.ibm.research.kar.reefer.model.Order;
-import com.ibm.research.kar.reefer.model.ReeferDTO;
-import org.apache.commons.collections.ListUtils;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
 import javax.json.*;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -41,29 +38,44 @@ import java.util.stream.Collectors;
 /**
  * This actor manages reefer inventory allocating reefers to new orders
  * and releasing reefers back to inventory when an order is delivered.
- * It maintains its inventory in a global array keyed with reefer ids.
+ * It maintains its inventory in a depot local store which maps reefer ids
+ * to dense slots using the depot shards and keeps reefer attributes in
+ * primitive columns.
  */
 @Actor
 public class DepotActor extends BaseActor {
     private ActorRef scheduleActor = Kar.Actors.ref(ReeferAppConfig.ScheduleManagerActorType, ReeferAppConfig.ScheduleManagerId);
     private static boolean ALLOCATION_FAILED=true;
-    // global array to hold reefers
-    private ReeferDTO[] reeferMasterInventory = null;
+    // depot local store holding reefers
+    private DepotInventory inventory = null;
+    // free (unallocated) inventory slots used by the ReeferAllocator
+    private ReeferFreeList freeList = null;
 
     private int bookedTotalCount = 0;
-    private Map<Integer, Integer> onMaintenanceMap = new ConcurrentHashMap<>();
+    // reefers on maintenance bucketed by release day
+    private MaintenanceCalendar maintenanceCalendar = new MaintenanceCalendar();
     // contains Order-Reefers mapping needed to reduce latency of calls
-    private Map<String, Set<String>> order2ReeferMap = new HashMap<>();
+    private Map<String, ReeferIdSet> order2ReeferMap = new HashMap<>();
     private JsonValue totalReeferInventory = Json.createValue(0);
     private JsonValue depotSize;
     private JsonValue currentInventorySize;
     private  Instant currentDate = null;
     private static Logger logger = ReeferLoggerFormatter.getFormattedLogger(DepotActor.class.getName());
     private InventoryConfig ic;
+    private static final String METRICS_REMINDER_ID = "depot-metrics";
+    // metrics last published to the DepotManager and when
+    private String publishedMetrics = null;
+    private long metricsPublishedAt = 0;
+    private boolean metricsFlushScheduled = false;
+    // booking requests waiting for the next flushBookings()
+    private List<JsonObject> pendingBookings = new ArrayList<>();
+    private boolean bookingFlushScheduled = false;
     @Activate
     public void activate() {
         long t = System.currentTimeMillis();
         long t2 = 0, t3 = 0, t4 = 0, t5 = 0, t6 = 0;
+        // fails the activation so that it is retried, errors below are only logged
+        AnomalyManagerRouter.load(this);
         try {
             // fetch actor state from Kar storage
             Map<String, JsonValue> state = Kar.Actors.State.getAll(this);
@@ -85,7 +97,7 @@ public class DepotActor extends BaseActor {
                     restoreInventoryConfig();
                     restoreReeferInventory(state);
                     restoreOrderToReefersMap();
-                    restoreOnMaintenanceMap(state);
+                    restoreMaintenanceCalendar();
                 }
 
             } else {
@@ -125,6 +137,13 @@ public class DepotActor extends BaseActor {
         JsonNumber depotSize = inventoryJson.getJsonNumber(Constants.DEPOT_SIZE_KEY);
         JsonNumber globalReeferCount = inventoryJson.getJsonNumber(Constants.TOTAL_REEFER_COUNT_KEY);
         ic = new InventoryConfig(depotSize.intValue(), globalReeferCount.intValue());
+        JsonArray jsonShards = inventoryJson.getJsonArray(Constants.SHARDS_KEY);
+        if ( jsonShards != null ) {
+            for ( JsonValue jsonShard : jsonShards) {
+                ic.addShard(new Shard(jsonShard.asJsonObject().getInt("reefer-id-lower-bound"),
+                        jsonShard.asJsonObject().getInt("reefer-id-upper-bound")));
+            }
+        }
 
     }
     private void restoreReeferInventory(Map<String, JsonValue> state)  {
@@ -136,21 +155,26 @@ public class DepotActor extends BaseActor {
             logger.info("DepotActor.restoreReeferInventory() " + getId() + "- Fetched size of the reefer inventory:"
                     + reeferInventory.size());
         }
-        // allocate reefer array which is used to allocate/deallocate reefers
-        reeferMasterInventory = new ReeferDTO[((JsonNumber) totalReeferInventory).intValue()];
+        // create depot inventory which is used to allocate/deallocate reefers
+        inventory = new DepotInventory(ic.getShards());
+        freeList = new ReeferFreeList(inventory.capacity());
         for (Map.Entry<String, JsonValue> entry : reeferInventory.entrySet()) {
             if (entry.getValue() == null) {
                 continue;
             }
             try {
                 JsonObject jo = entry.getValue().asJsonObject();
-                reeferMasterInventory[jo.getInt(Constants.REEFER_ID_KEY)] = jsonObjectToReeferDTO(jo);
+                int slot = restoreReefer(jo);
+                if (ReeferState.State.UNALLOCATED.equals(inventory.stateAt(slot))) {
+                    freeList.release(slot);
+                }
             } catch (Exception e) {
                 logger.log(Level.SEVERE,"DepotActor.restoreReeferInventory() ", e);
             }
         }
         if (logger.isLoggable(Level.INFO)) {
             logger.info("DepotActor.restoreReeferInventory - " + getId() + " inventory size:" + reeferInventory.size() +
+                    " overflow:" + inventory.overflowSize() + " symbols:" + inventory.symbolCount() +
                     "  completed in .........." + (System.currentTimeMillis() - t));
         }
     }
@@ -160,18 +184,23 @@ public class DepotActor extends BaseActor {
         // restore in-memory cache which manages order-reefers association.
         // with the cache its fast to check for idempotence when handling reefer booking
         //
-        order2ReeferMap = Arrays.stream(reeferMasterInventory).filter(Objects::nonNull).
-                collect(Collectors.groupingBy(ReeferDTO::getOrderId, Collectors.mapping(r -> String.valueOf(r.getId()), Collectors.toSet())));
+        order2ReeferMap = new HashMap<>();
+        for (int slot = 0; slot < inventory.capacity(); slot++) {
+            if (inventory.occupied(slot) && !inventory.orderAt(slot).isEmpty()) {
+                order2ReeferMap.computeIfAbsent(inventory.orderAt(slot), k -> new ReeferIdSet()).
+                        add(inventory.idAt(slot));
+            }
+        }
         logger.info("DepotActor.restoreOrderToReefersMap - " + getId() + "completed in .........." + (System.currentTimeMillis() - t));
     }
 
-    private void restoreOnMaintenanceMap(Map<String, JsonValue> state) {
+    private void restoreMaintenanceCalendar() {
         long t = System.currentTimeMillis();
-        onMaintenanceMap = Arrays.stream(reeferMasterInventory).
-                filter(Objects::nonNull).
-                filter(reefer -> reefer.getState().equals(ReeferState.State.MAINTENANCE)).
-                collect(Collectors.toMap(ReeferDTO::getId, ReeferDTO::getId));
-        logger.info("DepotActor.restoreOnMaintenanceMap - " + getId() + "completed in .........." + (System.currentTimeMillis() - t));
+        maintenanceCalendar = new MaintenanceCalendar();
+        inventory.reeferIds().
+                filter(id -> ReeferState.State.MAINTENANCE.equals(inventory.getState(id))).
+                forEach(id -> maintenanceCalendar.schedule(id, inventory.getMaintenanceReleaseDay(id)));
+        logger.info("DepotActor.restoreMaintenanceCalendar - " + getId() + "completed in .........." + (System.currentTimeMillis() - t));
     }
 
     @Remote
@@ -203,17 +232,11 @@ public class DepotActor extends BaseActor {
     @Remote
     public void releaseReefersFromMaintenance(JsonObject message) {
         try {
-            if (!onMaintenanceMap.isEmpty()) {
+            if (!maintenanceCalendar.isEmpty()) {
                 // get current date. Its a date that the simulator advances at regular intervals.
                 currentDate = Instant.parse(message.getString(Constants.DATE_KEY));
-                List<String> reefers2Remove = getReefersToRemoveFromMaintenance(currentDate);
-                List<ReeferDTO> updateList = new LinkedList<>();
-                for (String reeferId : reefers2Remove) {
-                    onMaintenanceMap.remove(Integer.parseInt(reeferId));
-                    reeferMasterInventory[Integer.parseInt(reeferId)].reset();
-                    updateList.add(reeferMasterInventory[Integer.parseInt(reeferId)]);
-                }
-                updateStore( Collections.emptyMap(), reeferMap(updateList));
+                List<Integer> reefers2Remove = getReefersToRemoveFromMaintenance(currentDate);
+                updateStore( Collections.emptyMap(), reeferMap(reefers2Remove));
             }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "DepotActor.releaseReefersfromMaintenance() - Error ", e);
@@ -222,15 +245,17 @@ public class DepotActor extends BaseActor {
 
     }
 
-    private List<String> getReefersToRemoveFromMaintenance(Instant today) {
-        List<String> reefers2Remove = new ArrayList<>();
-        Iterator<Integer> it = onMaintenanceMap.values().iterator();
-        while (it.hasNext()) {
-            ReeferDTO reefer = reeferMasterInventory[it.next()];
-            // release reefer from maintenance if today matches reefer's assigned release date
-            if (reefer != null && reefer.releaseFromMaintenanceToday(today)) {
-                reefer.reset();
-                reefers2Remove.add(String.valueOf(reefer.getId()));
+    private List<Integer> getReefersToRemoveFromMaintenance(Instant today) {
+        int day = EpochDay.of(today);
+        // only reefers scheduled for release on or before today are visited
+        int[] due = maintenanceCalendar.due(day);
+        List<Integer> reefers2Remove = new ArrayList<>(due.length);
+        for (int reeferId : due) {
+            // skip stale entries of reefers which left maintenance or the depot since being scheduled
+            if (inventory.contains(reeferId) && ReeferState.State.MAINTENANCE.equals(inventory.getState(reeferId))
+                    && day >= inventory.getMaintenanceReleaseDay(reeferId)) {
+                releaseToInventory(reeferId);
+                reefers2Remove.add(reeferId);
             }
         }
         return reefers2Remove;
@@ -249,46 +274,48 @@ public class DepotActor extends BaseActor {
     public void voyageReefersDeparted(JsonObject message) {
         try {
             String voyageId = message.getString(Constants.VOYAGE_ID_KEY);
-            List<ReeferDTO> voyageReefers = voyageAllocatedReefers(voyageId);
+            List<Integer> voyageReefers = voyageAllocatedReefers(voyageId);
 
             Set<String> depotOrders = new HashSet<>();
             if (voyageReefers.size() > 0) {
-                StringBuilder builder = new StringBuilder();
-                for (ReeferDTO reefer : voyageReefers) {
+                ReeferIdSet departed = new ReeferIdSet();
+                for (int reeferId : voyageReefers) {
+                    String orderId = inventory.getOrderId(reeferId);
                     // remove departing reefers from inventory
-                    reeferMasterInventory[reefer.getId()] = null;
-                    if (order2ReeferMap.containsKey(reefer.getOrderId())) {
-                        if (  !depotOrders.contains(reefer.getOrderId())) {
-                            depotOrders.add(reefer.getOrderId());
+                    removeFromInventory(reeferId);
+                    if (order2ReeferMap.containsKey(orderId)) {
+                        if (  !depotOrders.contains(orderId)) {
+                            depotOrders.add(orderId);
                         }
-                        order2ReeferMap.remove(reefer.getOrderId());
+                        order2ReeferMap.remove(orderId);
                     }
-                    builder.append(reefer.getId()).append(",");
+                    departed.add(reeferId);
                 }
                 int orderCount = depotOrders.size();
                 // if there is excess of reefers in inventory, transfer some to the voyage to rebalance depots
-                List<ReeferDTO> empties = getEmptyReefersOnExcessInventory(message.getInt(Constants.VOYAGE_FREE_CAPACITY_KEY), voyageId);
-                for( ReeferDTO reefer : empties ) {
-                    reeferMasterInventory[reefer.getId()] = null;
-                    builder.append(reefer.getId()).append(",");
+                int[] empties = getEmptyReefersOnExcessInventory(message.getInt(Constants.VOYAGE_FREE_CAPACITY_KEY), voyageId);
+                for( int reeferId : empties ) {
+                    removeFromInventory(reeferId);
+                    departed.add(reeferId);
                 }
                 if (logger.isLoggable(Level.INFO)) {
-                    logger.info("DepotActor.voyageReefersDeparted() >>>> Depot:"+getId()+" Voyage:"+voyageId+" reefer count:"+orderCount+" empties:"+empties.size());
+                    logger.info("DepotActor.voyageReefersDeparted() >>>> Depot:"+getId()+" Voyage:"+voyageId+" reefer count:"+orderCount+" empties:"+empties.length);
                 }
-                Inventory inventory = getReeferInventoryCounts();
-                bookedTotalCount = inventory.getBooked();
-                currentInventorySize = Json.createValue(inventory.getTotal());
+                Inventory counts = getReeferInventoryCounts();
+                bookedTotalCount = counts.getBooked();
+                currentInventorySize = Json.createValue(counts.getTotal());
                 messageAnomalyManager(voyageId, AnomalyManagerActor.ReeferLocation.LocationType.VOYAGE.getType(),
-                        builder.toString(), "voyageDeparted", voyageId);
+                        departed, "voyageDeparted", voyageId);
                 // combine loaded reefers with empties
-                List<ReeferDTO> combinedList = ListUtils.union(voyageReefers, empties);
+                List<Integer> combinedList = new ArrayList<>(voyageReefers);
+                Arrays.stream(empties).forEach(combinedList::add);
                 // remove reefers in combined list from this depot inventory
                 updateStore(deleteMap(combinedList), Collections.emptyMap());
                 if (logger.isLoggable(Level.INFO)) {
                     logger.info(String.format("DepotActor.voyageReefersDeparted() >>>> \t%25s \tVoyage:%20s \tDeparted:%7d \t%s \tempties:%7d",
-                            getId(),voyageId,voyageReefers.size(),inventory.toString(), empties.size()) );
+                            getId(),voyageId,voyageReefers.size(),counts.toString(), empties.length) );
                 }
-                Set<String> rids = empties.stream().map(ReeferDTO::getId).map(String::valueOf).collect(Collectors.toSet());
+                ReeferIdSet rids = ReeferIdSet.of(empties);
                 if (logger.isLoggable(Level.INFO)) {
                     logger.info("DepotActor.voyageReefersDeparted() >>>> Depot:"+getId()+" Voyage:"+voyageId+" voyage order count:"+orderCount+" rids.size:"+rids.size());
                 }
@@ -298,7 +325,7 @@ public class DepotActor extends BaseActor {
                 if ( rids.isEmpty() ) {
 		              replyJob.add(Constants.VOYAGE_EMPTY_REEFERS_KEY, Json.createValue(""));
 		          } else {
-   		           replyJob.add(Constants.VOYAGE_EMPTY_REEFERS_KEY, Json.createValue(String.join(",", rids)));
+   		           replyJob.add(Constants.VOYAGE_EMPTY_REEFERS_KEY, Json.createValue(rids.encode()));
                     Actors.Builder.instance().target(ReeferAppConfig.VoyageActorType, voyageId).
                             method("addEmptyReefers").arg(replyJob.build()).tell();
 		          }
@@ -311,22 +338,30 @@ public class DepotActor extends BaseActor {
         }
 
     }
-    private void messageAnomalyManager(String targetId, int targetType, String reefers, String method, String voyageId) {
-        JsonObjectBuilder job = Json.createObjectBuilder();
-        job.add(Constants.ANOMALY_TARGET_KEY, targetId).
-                add(Constants.ANOMALY_TARGET_TYPE_KEY, Json.createValue(targetType)).
-                add(Constants.REEFERS_KEY, reefers).
-                add(Constants.VOYAGE_ID_KEY,Json.createValue(voyageId) );
-        ActorRef anomalyManagerActor = Kar.Actors.ref(ReeferAppConfig.AnomalyManagerActorType, ReeferAppConfig.AnomalyManagerId);
-        Kar.Actors.tell(anomalyManagerActor, method, job.build());
-    }
-    private List<ReeferDTO> getEmptyReefersOnExcessInventory(int shipRemainingCapacity, String voyageId) {
-        List<ReeferDTO> empties = new ArrayList<>();
-        Inventory inventory = getReeferInventoryCounts();
+    private void messageAnomalyManager(String targetId, int targetType, ReeferIdSet reefers, String method, String voyageId) {
+        Map<Integer, ReeferIdSet> shardReefers = AnomalyManagerRouter.split(reefers);
+        List<ActorRef> anomalyManagers = AnomalyManagerRouter.anomalyManagers();
+        for (int shard = 0; shard < anomalyManagers.size(); shard++) {
+            ReeferIdSet subset = shardReefers.get(shard);
+            // arrivals are handled by every shard since each moves its own reefers off the voyage
+            if (subset == null && !"voyageArrived".equals(method)) {
+                continue;
+            }
+            JsonObjectBuilder job = Json.createObjectBuilder();
+            job.add(Constants.ANOMALY_TARGET_KEY, targetId).
+                    add(Constants.ANOMALY_TARGET_TYPE_KEY, Json.createValue(targetType)).
+                    add(Constants.REEFERS_KEY, subset == null ? "" : subset.encode()).
+                    add(Constants.VOYAGE_ID_KEY,Json.createValue(voyageId) );
+            Kar.Actors.tell(anomalyManagers.get(shard), method, job.build());
+        }
+    }
+    private int[] getEmptyReefersOnExcessInventory(int shipRemainingCapacity, String voyageId) {
+        int[] empties = new int[0];
+        Inventory counts = getReeferInventoryCounts();
         // check if there is excess reefer capacity in this depot. The ic.depotSize()
         // returns the initial depot size
-        if (inventory.available > ic.depotSize) {
-            int excessInventory = inventory.available - ic.depotSize;
+        if (counts.available > ic.depotSize) {
+            int excessInventory = counts.available - ic.depotSize;
             int emptiesNeeded = 0;
             if ( excessInventory > 0 ) {
                 if (excessInventory > shipRemainingCapacity) {
@@ -338,50 +373,27 @@ public class DepotActor extends BaseActor {
             // allocate empty reefers to re-balance inventory between two depots. Empties are not associated
             // with orders.
             int reefersNeeded = ReeferAppConfig.ReeferMaxCapacityValue * emptiesNeeded;
-            empties = ReeferAllocator.allocateReefers(reeferMasterInventory, reefersNeeded,
-                    "", voyageId, inventory.available,  getId());
+            empties = ReeferAllocator.allocateReefers(inventory, freeList, reefersNeeded,
+                    "", voyageId, getId());
             if (logger.isLoggable(Level.INFO)) {
-                logger.info("DepotActor.getEmptyReefersOnExcessInventory()- "+getId()+" Available:"+inventory.available+" ReeferAllocator allocated empties:"+empties.size());
+                logger.info("DepotActor.getEmptyReefersOnExcessInventory()- "+getId()+" Available:"+counts.available+" ReeferAllocator allocated empties:"+empties.length);
             }
         }
         return empties;
     }
 
-    private int getUnallocatedReeferCount() {
-        int count=0;
-        for( ReeferDTO reefer : reeferMasterInventory) {
-            if ( reefer != null && reefer.getState().equals(ReeferState.State.UNALLOCATED)) {
-                count++;
-            }
-        }
-        return count;
-    }
-
     private Inventory getReeferInventoryCounts() {
-        int rbooked=0, rfree=0, rbad=0, total=0;
-        for( ReeferDTO reefer : reeferMasterInventory) {
-            if (reefer != null ) {
-                switch( reefer.getState()) {
-                    case ALLOCATED:
-                        rbooked++;
-                        total++;
-                        break;
-                    case UNALLOCATED:
-                        rfree++;
-                        total++;
-                        break;
-                    case MAINTENANCE:
-                        rbad++;
-                        total++;
-                        break;
-                    default:
-                        logger.warning("DepotActor.showReeferInventory - unexpected reefer state:"+reefer.getState()+" voyage:"+reefer.getVoyageId());
-                }
-
+        int rbooked = inventory.count(ReeferState.State.ALLOCATED);
+        int rfree = inventory.count(ReeferState.State.UNALLOCATED);
+        int rbad = inventory.count(ReeferState.State.MAINTENANCE);
+        if (logger.isLoggable(Level.FINEST)) {
+            // debug only - compare incrementally maintained counts against a full inventory scan
+            String mismatch = inventory.verifyCounts();
+            if (mismatch != null) {
+                logger.severe("DepotActor.getReeferInventoryCounts - "+getId()+" inventory counts out of sync - "+mismatch);
             }
-
         }
-        return new Inventory(total, rbooked, rfree, rbad);
+        return new Inventory(rbooked + rfree + rbad, rbooked, rfree, rbad);
     }
 
     @Remote
@@ -390,30 +402,22 @@ public class DepotActor extends BaseActor {
             String arrivalDate = message.getString(Constants.VOYAGE_ARRIVAL_DATE_KEY);
             String voyageId = message.getString(Constants.VOYAGE_ID_KEY);
             // get arrived reefer ids
-            String[] reeferIds = message.getString(Constants.REEFERS_KEY).split(",");
-            String[] spoiltInventory = message.getString(Constants.SPOILT_REEFERS_KEY).split(",");
-            String[] emptyReeferIds = new String[0];
-	         if ( message.containsKey(Constants.VOYAGE_EMPTY_REEFERS_KEY) ) {
-		         String emptyReefers = message.getString(Constants.VOYAGE_EMPTY_REEFERS_KEY);
-                if ( emptyReefers.trim().length()==0 ) {
-                    emptyReefers ="";
-                } else {
-                    emptyReeferIds = emptyReefers.split(",");
-                }
-	         }
+            ReeferIdSet reeferIds = ReeferIdSet.decode(message.getString(Constants.REEFERS_KEY));
+            ReeferIdSet spoiltInventory = ReeferIdSet.decode(message.getString(Constants.SPOILT_REEFERS_KEY));
+            ReeferIdSet emptyReeferIds = ReeferIdSet.decode(message.getString(Constants.VOYAGE_EMPTY_REEFERS_KEY, ""));
             // combine reefers with products and empties as a new reefer inventory
-            String[] newInventory = (String[]) ArrayUtils.addAll(reeferIds, emptyReeferIds);
-            List<ReeferDTO> updateList = receiveInventory(newInventory);
+            ReeferIdSet newInventory = reeferIds.copy().addAll(emptyReeferIds);
+            List<Integer> updateList = receiveInventory(newInventory);
             receiveSpoiltInventory(spoiltInventory, arrivalDate);
             messageAnomalyManager(getId(), AnomalyManagerActor.ReeferLocation.LocationType.DEPOT.getType(),
-                    String.join(",", newInventory), "voyageArrived", voyageId);
-            Inventory inventory = getReeferInventoryCounts();
-            currentInventorySize = Json.createValue(inventory.getTotal());
-            bookedTotalCount = inventory.getBooked();
+                    newInventory, "voyageArrived", voyageId);
+            Inventory counts = getReeferInventoryCounts();
+            currentInventorySize = Json.createValue(counts.getTotal());
+            bookedTotalCount = counts.getBooked();
             updateStore(Collections.emptyMap(), reeferMap(updateList));
             if (logger.isLoggable(Level.INFO)) {
                 logger.info(String.format("DepotActor.voyageReefersArrived()  <<<< \t%25s \tVoyage:%20s \tArrived:%8d \t%s \tEmpties:%6d \tArrival Date:%s \tUpdateList:%d \tnewInventory:%d",
-                        getId(), voyageId, reeferIds.length, getReeferInventoryCounts().toString(), emptyReeferIds.length,arrivalDate.toString(), updateList.size(), newInventory.length));
+                        getId(), voyageId, reeferIds.size(), getReeferInventoryCounts().toString(), emptyReeferIds.size(),arrivalDate.toString(), updateList.size(), newInventory.size()));
             }
         } catch (Exception e) {
             String stacktrace = ExceptionUtils.getStackTrace(e).replaceAll("\n","");
@@ -422,36 +426,26 @@ public class DepotActor extends BaseActor {
         }
 
     }
-    private List<ReeferDTO> receiveInventory(String[] reeferIds) {
-        List<ReeferDTO> updateList = new ArrayList<>(reeferIds.length);
-        int i=0;
+    private List<Integer> receiveInventory(ReeferIdSet reeferIds) {
+        List<Integer> updateList = new ArrayList<>(reeferIds.size());
         // transfer empty reefers
-        for(String reeferId : reeferIds ) {
-            if ( reeferId.trim().length() == 0) {
-                continue;
-            }
-            i++;
-            int idx = Integer.parseInt(reeferId);
-            if ( reeferMasterInventory[idx] == null ) {
-                reeferMasterInventory[idx] = new ReeferDTO(Integer.parseInt(reeferId), ReeferState.State.UNALLOCATED);
-                updateList.add(reeferMasterInventory[idx]);
+        for(int idx : reeferIds.toArray() ) {
+            if ( !inventory.contains(idx) ) {
+                freeList.release(inventory.add(idx, ReeferState.State.UNALLOCATED));
+                updateList.add(idx);
             }
         }
         return updateList;
     }
 
 
-    private void receiveSpoiltInventory(String[] spoiltReeferIds,String arrivalDate) {
+    private void receiveSpoiltInventory(ReeferIdSet spoiltReeferIds,String arrivalDate) {
         // now, all arrived spoilt reefer go on maintenance
-        for( String reeferId : spoiltReeferIds) {
-            if ( reeferId != null && reeferId.trim().length() == 0) {
-                continue;
-            }
-            int idx = Integer.valueOf(reeferId);
-            if ( reeferMasterInventory[idx] != null && !reeferMasterInventory[idx].getState().equals(ReeferState.State.ALLOCATED)) {
-                reeferMasterInventory[idx] = new ReeferDTO(Integer.valueOf(reeferId), ReeferState.State.SPOILT);
+        for( int idx : spoiltReeferIds.toArray()) {
+            if ( inventory.contains(idx) && !inventory.getState(idx).equals(ReeferState.State.ALLOCATED)) {
+                freeList.remove(inventory.add(idx, ReeferState.State.SPOILT));
                 Map<String, JsonValue> arrivedOnMaintenanceMap = new HashMap<>();
-                unReserveReefer(reeferMasterInventory[idx], arrivedOnMaintenanceMap, arrivalDate);
+                unReserveReefer(idx, arrivedOnMaintenanceMap, arrivalDate);
             }
 
         }
@@ -460,122 +454,146 @@ public class DepotActor extends BaseActor {
     public void rollbackOrder(JsonObject message) {
         // wrap Json with POJO
         Order order = new Order(message);
+        // the order may still be waiting for the next flush
+        pendingBookings.removeIf(booking -> order.getId().equals(booking.getString(Constants.ORDER_ID_KEY, null)));
         if (order2ReeferMap.containsKey(order.getId())) {
             logger.warning("DepotActor.rollbackOrder - depot:"+getId()+" voyageId:"+order.getVoyageId() +" orderId:"+order.getId());
-            Set<String> rids = order2ReeferMap.get(order.getId());
-            String[] reefersToRollback = new String[rids.size()];
-            List<ReeferDTO> updateList = receiveInventory(rids.toArray(reefersToRollback));
+            ReeferIdSet reefersToRollback = order2ReeferMap.get(order.getId());
+            List<Integer> updateList = new ArrayList<>(reefersToRollback.size());
+            for (int reeferId : reefersToRollback.toArray()) {
+                // return order reefers to inventory which also drops them from the voyage index
+                if (inventory.contains(reeferId) && order.getId().equals(inventory.getOrderId(reeferId))) {
+                    releaseToInventory(reeferId);
+                    updateList.add(reeferId);
+                }
+            }
             order2ReeferMap.remove(order.getId());
-            Inventory inventory = getReeferInventoryCounts();
-            bookedTotalCount = inventory.getBooked();
+            Inventory counts = getReeferInventoryCounts();
+            bookedTotalCount = counts.getBooked();
             if (logger.isLoggable(Level.INFO)) {
-                logger.info("DepotActor.rollbackOrder() - depot:" +getId()+" voyage:"+order.getVoyageId()+" reefersToRollback:"+reefersToRollback.length);
+                logger.info("DepotActor.rollbackOrder() - depot:" +getId()+" voyage:"+order.getVoyageId()+" reefersToRollback:"+reefersToRollback.size());
             }
             messageAnomalyManager(getId(), AnomalyManagerActor.ReeferLocation.LocationType.DEPOT.getType(),
-                    String.join(",", reefersToRollback), "voyageOrderRollback", order.getVoyageId());
+                    reefersToRollback, "voyageOrderRollback", order.getVoyageId());
             updateStore(Collections.emptyMap(), reeferMap(updateList));
         }
     }
     /**
-     * Reserve enough reefers to fill with order products.
+     * Queues a request to reserve enough reefers to fill with order products. Requests
+     * arriving before the queue is flushed are booked together by flushBookings(), so a
+     * burst of orders for voyages departing from this depot costs a single state update.
+     * Queued requests are only kept in memory. If the depot fails before the flush the
+     * orders time out and are rolled back by the OrderManager.
      *
-     * @param bookingRequest
-     * @return
+     * @param bookingRequest - order to book
      */
     @Remote
-    public Kar.Actors.TailCall bookReefers(JsonObject bookingRequest) {
-        Order order = null;
-        Set<String> rids;
-        List<ReeferDTO> orderReefers = null;
-        try {
-            // wrap Json with POJO
-            order = new Order(bookingRequest);
-            order.setDepot(this.getId());
-            // idempotence check.
-            if (order2ReeferMap.containsKey(order.getId())) {
-                logger.info("DepotActor.bookReefers - "+getId()+" voyage:"+order.getVoyageId() +" idempotence check triggered for order Id:"+order.getId());
-                return null;
-            }
-            // allocate reefers to the order.
-            ReeferAllocationStatus reeferAllocation = allocateReefers(order);
-            if ( reeferAllocation.failed() ) {
-                return new Kar.Actors.TailCall( this,
-                        "handleFailedAllocationAndSaveState", order.getAsJsonObject());
-             } else {
-                Inventory inventory = getReeferInventoryCounts();
-                return new Kar.Actors.TailCall( this,
-                        "handleSuccessfulAllocationAndSaveState", reeferAllocation.reefersToJsonArray(),
-                        order.getAsJsonObject(), Json.createValue(inventory.getTotal()), Json.createValue(inventory.getBooked()));
-            }
-        } catch (Exception e) {
-            // undo reefer allocation
-            if ( orderReefers != null && !orderReefers.isEmpty() ) {
-                rollbackOrder(bookingRequest);
-            }
-            logFailure(order, e);
-            return null;
+    public void queueBooking(JsonObject bookingRequest) {
+        pendingBookings.add(bookingRequest);
+        if (!bookingFlushScheduled) {
+            // delivered after the requests already waiting for this actor
+            Kar.Actors.tell(this, "flushBookings");
+            bookingFlushScheduled = true;
         }
     }
-    @Remote
-    public Kar.Actors.TailCall handleFailedAllocationAndSaveState(JsonObject orderAsJson) {
-        Order order = new Order(orderAsJson);
-        order.setMsg("Failed to allocate reefers to order");
-        order.setBookingFailed();
-        updateStore(Collections.emptyMap(), reeferMap(Collections.emptyList()));
-        JsonObject reply = createReply(Collections.emptySet(),order.getAsJsonObject(), Constants.FAILED);
-        return new Kar.Actors.TailCall( Kar.Actors.ref(ReeferAppConfig.VoyageActorType, order.getVoyageId()),
-                "processReefersBookingResult", reply );
 
-    }
+    /**
+     * Books all queued requests in one batch and sends each reply to the voyage the
+     * order was placed on.
+     */
     @Remote
-    public Kar.Actors.TailCall handleSuccessfulAllocationAndSaveState(JsonArray reefers, JsonObject orderAsJson, JsonNumber invSize, JsonNumber bookedCount) {
-        Order order = new Order(orderAsJson);
-        List<ReeferDTO> orderReefers = new LinkedList<>();
-        Set<String> rids = new LinkedHashSet<>();
-        for( JsonValue reeferJson : reefers ) {
-            ReeferDTO reefer = jsonObjectToReeferDTO(reeferJson.asJsonObject());
-            orderReefers.add(reefer);
-            rids.add(String.valueOf(reefer.getId()));
-        }
-        // create order to reefers mapping for in-memory cache to reduce latency
-        order2ReeferMap.put(order.getId().trim(), rids);
-        currentInventorySize = invSize;
-        bookedTotalCount = bookedCount.intValue();
-        updateStore(Collections.emptyMap(), reeferMap(orderReefers));
-        return new Kar.Actors.TailCall( Kar.Actors.ref(ReeferAppConfig.VoyageActorType, order.getVoyageId()),
-                "processReefersBookingResult", createReply(rids,order.getAsJsonObject(), Constants.OK));
+    public void flushBookings() {
+        bookingFlushScheduled = false;
+        if (pendingBookings.isEmpty()) {
+            return;
+        }
+        JsonArrayBuilder batch = Json.createArrayBuilder();
+        pendingBookings.forEach(batch::add);
+        pendingBookings.clear();
+        for (JsonValue reply : bookReefersBatch(batch.build())) {
+            String voyageId = reply.asJsonObject().getJsonObject(JsonOrder.OrderKey).getString(Constants.VOYAGE_ID_KEY);
+            Kar.Actors.tell(Kar.Actors.ref(ReeferAppConfig.VoyageActorType, voyageId), "processReefersBookingResult", reply);
+        }
     }
-    private void logFailure(Order order, Exception e) {
-        int actual = 0, bad = 0;
-        for (ReeferDTO reeferDTO : reeferMasterInventory) {
-            if (reeferDTO != null) {
-                if (reeferDTO.getState().equals(ReeferState.State.UNALLOCATED)) {
-                    actual++;
-                } else if (reeferDTO.getState().equals(ReeferState.State.MAINTENANCE)) {
-                    bad++;
+    /**
+     * Reserve reefers for a batch of orders. All reefer changes and depot metrics
+     * are persisted in a single state update. Orders which have already been
+     * booked are skipped (idempotence).
+     *
+     * @param bookingRequests - orders to book
+     * @return - per order replies in the format VoyageActor.processReefersBookingResult() expects
+     */
+    @Remote
+    public JsonArray bookReefersBatch(JsonArray bookingRequests) {
+        Map<String, JsonValue> updateMap = new HashMap<>();
+        JsonArrayBuilder replies = Json.createArrayBuilder();
+        for (JsonValue bookingRequest : bookingRequests) {
+            Order order = null;
+            ReeferIdSet rids = null;
+            try {
+                order = new Order(bookingRequest.asJsonObject());
+                order.setDepot(this.getId());
+                // idempotence check.
+                if (order2ReeferMap.containsKey(order.getId())) {
+                    logger.info("DepotActor.bookReefersBatch - "+getId()+" voyage:"+order.getVoyageId() +" idempotence check triggered for order Id:"+order.getId());
+                    continue;
+                }
+                ReeferAllocationStatus reeferAllocation = allocateReefers(order);
+                if ( reeferAllocation.failed() ) {
+                    order.setMsg("Failed to allocate reefers to order");
+                    order.setBookingFailed();
+                    replies.add(createReply(new ReeferIdSet(), order.getAsJsonObject(), Constants.FAILED));
+                    continue;
+                }
+                rids = ReeferIdSet.of(reeferAllocation.getOrderReefersList());
+                order2ReeferMap.put(order.getId().trim(), rids);
+                for (int reeferId : reeferAllocation.getOrderReefersList()) {
+                    updateMap.put(String.valueOf(reeferId), reeferToJsonObject(reeferId));
+                }
+                replies.add(createReply(rids, order.getAsJsonObject(), Constants.OK));
+            } catch (Exception e) {
+                // undo reefer allocation
+                if ( rids != null ) {
+                    for (int reeferId : rids.toArray()) {
+                        releaseToInventory(reeferId);
+                        updateMap.put(String.valueOf(reeferId), reeferToJsonObject(reeferId));
+                    }
+                    order2ReeferMap.remove(order.getId().trim());
+                }
+                if ( order == null ) {
+                    logger.log(Level.SEVERE, "DepotActor.bookReefersBatch() - "+getId()+" invalid booking request:"+bookingRequest, e);
+                } else {
+                    logFailure(order, e);
                 }
             }
         }
-        logger.log(Level.SEVERE, "DepotActor.bookReefers() FAILED !!!!!!!!!!!!!!! - Depot:" + getId() +
+        Inventory counts = getReeferInventoryCounts();
+        currentInventorySize = Json.createValue(counts.getTotal());
+        bookedTotalCount = counts.getBooked();
+        // don't let the batch wait for the publishing interval
+        String metrics = getMetricsString();
+        publishMetrics(metrics, true);
+        saveState(Collections.emptyMap(), updateMap, metrics);
+        return replies.build();
+    }
+    private void logFailure(Order order, Exception e) {
+        int actual = inventory.count(ReeferState.State.UNALLOCATED);
+        int bad = inventory.count(ReeferState.State.MAINTENANCE);
+        logger.log(Level.SEVERE, "DepotActor.bookReefersBatch() FAILED !!!!!!!!!!!!!!! - Depot:" + getId() +
                 " current Inventory:" + ((JsonNumber) currentInventorySize).intValue() +
                 " - Actual Available Reefer Count:" + actual +
                 " - Currently onMaintenance:" + bad +
                 " - Total available (avail + maintenance):"+(actual+bad) +
                 " Order reefers:" + order.getProductQty() / 1000 + " Error ", e);
     }
-    private JsonObject updateStore(Map<String, List<String>> deleteMap, Map<String, JsonValue> updateMap, JsonObject reply) {
-        updateStore(deleteMap, updateMap);
-        return reply;
-    }
     private ReeferAllocationStatus allocateReefers(Order order ) {
-        List<ReeferDTO> orderReefers = null;
-        int currentAvailableReeferCount = getUnallocatedReeferCount();
+        int[] orderReefers = null;
         ReeferAllocationStatus allocationStatus;
         try {
             // allocate enough reefers to cary products in the order
-            orderReefers = ReeferAllocator.allocateReefers(reeferMasterInventory, order.getProductQty(),
-                    order.getId(), order.getVoyageId(), currentAvailableReeferCount, getId());
-            if ( orderReefers == null || orderReefers.isEmpty() ) {
+            orderReefers = ReeferAllocator.allocateReefers(inventory, freeList, order.getProductQty(),
+                    order.getId(), order.getVoyageId(), getId());
+            if ( orderReefers == null || orderReefers.length == 0 ) {
                  allocationStatus = new ReeferAllocationStatus();  // ctor sets internal allocation failure flag
             } else {
                 allocationStatus = new ReeferAllocationStatus(orderReefers);
@@ -588,26 +606,26 @@ public class DepotActor extends BaseActor {
         }
         return allocationStatus;
     }
-    private JsonObject createReply(Set<String> reeferIds, JsonObject order, String bookingStatus) {
+    private JsonObject createReply(ReeferIdSet reeferIds, JsonObject order, String bookingStatus) {
         return Json.createObjectBuilder().add(Constants.STATUS_KEY, bookingStatus).
                 add(Constants.DEPOT_KEY, getId()).
                 add(Constants.REEFERS_KEY, Json.createValue(reeferIds.size())).
-                add(Constants.ORDER_REEFERS_KEY, Json.createValue(String.join(",", reeferIds))).
+                add(Constants.ORDER_REEFERS_KEY, Json.createValue(reeferIds.encode())).
                 add(JsonOrder.OrderKey, order).build();
     }
-    private Map<String, JsonValue> reeferMap(List<ReeferDTO> orderReefers) {
-        Map<String, JsonValue> map = new HashMap<>(orderReefers.size());
-        for (ReeferDTO reefer : orderReefers) {
-            map.put(String.valueOf(reefer.getId()), reeferToJsonObject(reefer));
+    private Map<String, JsonValue> reeferMap(List<Integer> reeferIds) {
+        Map<String, JsonValue> map = new HashMap<>(reeferIds.size());
+        for (int reeferId : reeferIds) {
+            map.put(String.valueOf(reeferId), reeferToJsonObject(reeferId));
         }
         return map;
     }
 
-    private Map<String, List<String>> deleteMap(List<ReeferDTO> reefers) {
+    private Map<String, List<String>> deleteMap(List<Integer> reeferIds) {
         Map<String, List<String>> map = new HashMap<>();
         List<String> reeferIdsToDelete = new LinkedList<>();
-        for (ReeferDTO reefer : reefers) {
-            reeferIdsToDelete.add(String.valueOf(reefer.getId()));
+        for (int reeferId : reeferIds) {
+            reeferIdsToDelete.add(String.valueOf(reeferId));
         }
         map.put(Constants.REEFER_MAP_KEY, reeferIdsToDelete);
         return map;
@@ -621,49 +639,78 @@ public class DepotActor extends BaseActor {
      *
      * @param message
      */
+    /**
+     * Called by the DepotManager when it partitions reefers between anomaly managers again
+     *
+     * @param message - anomaly manager shard count and bounds
+     */
     @Remote
-    public void reeferAnomaly(JsonObject message) {
-        int reeferId = message.getInt(Constants.REEFER_ID_KEY);
-        if (reeferMasterInventory[reeferId] == null) {
-            logger.info("DepotActor.reeferAnomaly() - " + getId() + " >>>>>>>>>>>> REEFER:" + reeferId +
-                    " Not in inventory - departed already - sending back to Anomaly Manager");
-
-            // forward the anomaly back to the Anomaly Manager. The anomaly should be sent to the voyage actor.
-            JsonObjectBuilder job = Json.createObjectBuilder();
-            job.add(Constants.REEFER_ID_KEY, reeferId).add(Constants.DEPOT_KEY, getId()).add(Constants.TARGET_KEY, Constants.VOYAGE_TARGET_TYPE);
-            Actors.Builder.instance().target(ReeferAppConfig.AnomalyManagerActorType,  ReeferAppConfig.AnomalyManagerId).
-                    method("reeferAnomaly").arg(job.build()).tell();
-            return;
-        }
-        if (reeferMasterInventory[reeferId].alreadyBad()) {
-            return;
-        }
+    public void anomalyManagerShardsChanged(JsonObject message) {
+        AnomalyManagerRouter.update(message);
+    }
 
-        if (reeferMasterInventory[reeferId].assignedToOrder()) {
-            JsonObject orderReplaceMessage = Json.createObjectBuilder()
-                    .add(Constants.REEFER_ID_KEY,reeferId).build();
-            Actors.Builder.instance().target(ReeferAppConfig.OrderActorType,  reeferMasterInventory[reeferId].getOrderId()).
-                    method("replaceReefer").arg(orderReplaceMessage).tell();
-        } else {
-            Instant today;
-            if ( message.containsKey(Constants.DATE_KEY)) {
-                today = Instant.parse(message.getString(Constants.DATE_KEY));
-            } else if ( currentDate == null ) {
-                JsonValue reply = Kar.Actors.call(this, scheduleActor, "currentDate");
-                today = Instant.parse(((JsonString) reply).getString());
+    /**
+     * Handles a batch of reefer anomalies routed here by the Anomaly Manager. Reefers
+     * assigned to orders are replaced, idle reefers are put on maintenance and saved in a
+     * single state update. Reefers no longer in the inventory are sent back to the Anomaly
+     * Manager in one message.
+     *
+     * @param message - encoded ids of anomalous reefers in this depot
+     */
+    @Remote
+    public void reeferAnomalies(JsonObject message) {
+        ReeferIdSet reefers = ReeferIdSet.decode(message.getString(Constants.REEFERS_KEY));
+        ReeferIdSet departed = new ReeferIdSet();
+        Map<String, JsonValue> updateMap = new HashMap<>();
+        Instant today = null;
+        for (int reeferId : reefers.toArray()) {
+            if (!inventory.contains(reeferId)) {
+                departed.add(reeferId);
+                continue;
+            }
+            if (inventory.alreadyBad(reeferId)) {
+                continue;
+            }
+            if (inventory.assignedToOrder(reeferId)) {
+                JsonObject orderReplaceMessage = Json.createObjectBuilder()
+                        .add(Constants.REEFER_ID_KEY,reeferId).build();
+                Actors.Builder.instance().target(ReeferAppConfig.OrderActorType,  inventory.getOrderId(reeferId)).
+                        method("replaceReefer").arg(orderReplaceMessage).tell();
             } else {
-                today = currentDate;
+                if (today == null) {
+                    if ( message.containsKey(Constants.DATE_KEY)) {
+                        today = Instant.parse(message.getString(Constants.DATE_KEY));
+                    } else if ( currentDate == null ) {
+                        JsonValue reply = Kar.Actors.call(this, scheduleActor, "currentDate");
+                        today = Instant.parse(((JsonString) reply).getString());
+                    } else {
+                        today = currentDate;
+                    }
+                }
+                setReeferOnMaintenance(reeferId, today);
+                updateMap.put(String.valueOf(reeferId), reeferToJsonObject(reeferId));
             }
-            setReeferOnMaintenance(reeferMasterInventory[reeferId], today.toString());
-            Map<String, JsonValue> updateMap = new HashMap<>();
-            updateMap.put(String.valueOf(reeferId), reeferToJsonObject(reeferMasterInventory[reeferId]));
+        }
+        if (!updateMap.isEmpty()) {
             updateStore(Collections.emptyMap(), updateMap);
             if (logger.isLoggable(Level.FINE)) {
-                logger.fine("DepotActor.reeferAnomaly() - id:" + getId()
-                        + " added reefer:" + reeferId + " to "
+                logger.fine("DepotActor.reeferAnomalies() - id:" + getId()
+                        + " added " + updateMap.size() + " reefers to "
                         + Constants.ON_MAINTENANCE_PROVISIONER_LIST + " Map");
             }
         }
+        if (!departed.isEmpty()) {
+            logger.info("DepotActor.reeferAnomalies() - " + getId() + " reefers:" + departed +
+                    " Not in inventory - departed already - sending back to Anomaly Manager");
+            // the anomalies should be sent to the voyage actors. Echo the routing epoch so
+            // that the Anomaly Manager can tell whether it knows about the departure yet.
+            JsonObjectBuilder job = Json.createObjectBuilder().
+                    add(Constants.DEPOT_KEY, getId()).add(Constants.TARGET_KEY, Constants.VOYAGE_TARGET_TYPE);
+            if (message.containsKey(Constants.ANOMALY_EPOCH_KEY)) {
+                job.add(Constants.ANOMALY_EPOCH_KEY, message.get(Constants.ANOMALY_EPOCH_KEY));
+            }
+            AnomalyManagerRouter.tellAnomalies(departed, job.build());
+        }
     }
 
     /**
@@ -675,41 +722,38 @@ public class DepotActor extends BaseActor {
     public JsonObject reeferReplace(JsonObject message) {
        try {
            int reeferId = message.getInt(Constants.REEFER_ID_KEY);
-           if (reeferMasterInventory[reeferId] == null) {
+           if (!inventory.contains(reeferId)) {
                logger.log(Level.WARNING, "DepotActor.reeferReplace() - depot:"+getId()+" Reefer " + reeferId + " no longer in the inventory - request to replace it is invalid");
                return Json.createObjectBuilder()
                        .add(Constants.STATUS_KEY, Constants.FAILED).add(Constants.ERROR, "Depot "+getId()+" - request to replace reefer is invalid - reefer "+reeferId+" no longer in the inventory").build();
            }
-           ReeferDTO reefer = reeferMasterInventory[reeferId];
-           List<ReeferDTO> replacementReeferList = ReeferAllocator.allocateReefers(reeferMasterInventory,
-                   Constants.REEFER_CAPACITY, reefer.getOrderId(), reefer.getVoyageId(), getUnallocatedReeferCount(), getId());
-           if (replacementReeferList.isEmpty()) {
+           String orderId = inventory.getOrderId(reeferId);
+           int[] replacementReeferList = ReeferAllocator.allocateReefers(inventory, freeList,
+                   Constants.REEFER_CAPACITY, orderId, inventory.getVoyageId(reeferId), getId());
+           if (replacementReeferList.length == 0) {
                logger.log(Level.WARNING, "DepotActor.reeferReplace() - depot:"+getId()+" Unable to allocate replacement reefer for " + reeferId);
                return Json.createObjectBuilder().add(Constants.STATUS_KEY, Constants.FAILED).add(Constants.ERROR,"Unable to allocate replacement reefer for " + reeferId).build();
            }
            if (logger.isLoggable(Level.INFO)) {
                logger.info("DepotActor.reeferReplace() - replacing reeferId:"
-                       + reefer.getId() + " with:" + replacementReeferList.get(0).getId());
+                       + reeferId + " with:" + replacementReeferList[0]);
            }
-           if (order2ReeferMap.containsKey(reefer.getOrderId())) {
-               Set<String> reeferIds = order2ReeferMap.get(reefer.getOrderId());
+           if (order2ReeferMap.containsKey(orderId)) {
+               ReeferIdSet reeferIds = order2ReeferMap.get(orderId);
                // remove spoilt
-               reeferIds.remove(String.valueOf(reeferId));
+               reeferIds.remove(reeferId);
                // add replacement
-               reeferIds.add(String.valueOf(replacementReeferList.get(0).getId()));
-               order2ReeferMap.remove(reefer.getOrderId());
-               order2ReeferMap.put(reefer.getOrderId(),reeferIds);
+               reeferIds.add(replacementReeferList[0]);
            }
            JsonValue currentDate = Kar.Actors.call(this, scheduleActor, "currentDate");
-           setReeferOnMaintenance(reefer, ((JsonString) currentDate).getString());
-           reefer.removeFromVoyage();
+           setReeferOnMaintenance(reeferId, Instant.parse(((JsonString) currentDate).getString()));
            // persist changes applied to spoilt and replace reefers
            Map<String, JsonValue> updateMap = new HashMap<>();
-           updateMap.put(String.valueOf(reefer.getId()), reeferToJsonObject(reefer));
-           updateMap.put(String.valueOf(replacementReeferList.get(0).getId()), reeferToJsonObject(replacementReeferList.get(0)));
+           updateMap.put(String.valueOf(reeferId), reeferToJsonObject(reeferId));
+           updateMap.put(String.valueOf(replacementReeferList[0]), reeferToJsonObject(replacementReeferList[0]));
            updateStore(Collections.emptyMap(), updateMap);
            return Json.createObjectBuilder()
-                   .add(Constants.REEFER_REPLACEMENT_ID_KEY, replacementReeferList.get(0).getId())
+                   .add(Constants.REEFER_REPLACEMENT_ID_KEY, replacementReeferList[0])
                    .add(Constants.STATUS_KEY, Constants.OK).build();
        } catch( Exception e) {
            logger.log(Level.WARNING,"DepotActor.reeferReplace() : Error ", e);
@@ -724,56 +768,65 @@ public class DepotActor extends BaseActor {
      */
     @Remote
     public JsonValue voyageList() {
-        List<String> voyageIdList =
-                Arrays.stream(reeferMasterInventory).
-                        filter(Objects::nonNull).
-                        map(ReeferDTO::getVoyageId).
-                        filter(id -> !(id.trim().isEmpty())).
-                        distinct().
-                        collect(Collectors.toList());
+        Set<String> voyageIds = new LinkedHashSet<>();
+        for (int slot = 0; slot < inventory.capacity(); slot++) {
+            if (inventory.occupied(slot) && !inventory.voyageAt(slot).trim().isEmpty()) {
+                voyageIds.add(inventory.voyageAt(slot));
+            }
+        }
+        List<String> voyageIdList = new ArrayList<>(voyageIds);
         return Json.createArrayBuilder(voyageIdList).build();
     }
 
-    private ReeferDTO jsonObjectToReeferDTO(JsonObject reefer) {
-        ReeferDTO reeferDTO = new ReeferDTO(reefer.getInt(Constants.REEFER_ID_KEY),
-                ReeferState.State.valueOf(reefer.getString(Constants.REEFER_STATE_KEY)),
-                reefer.getString(Constants.ORDER_ID_KEY), reefer.getString(Constants.VOYAGE_ID_KEY));
+    /**
+     * Restores reefer from its persisted json form into the inventory
+     *
+     * @param reefer - reefer json
+     * @return - inventory slot holding the reefer
+     */
+    private int restoreReefer(JsonObject reefer) {
+        int releaseDay = DepotInventory.NO_RELEASE_DATE;
         if (reefer.containsKey(Constants.REEFERS_MAINTENANCE_DATE) && reefer.getString(Constants.REEFERS_MAINTENANCE_DATE).trim().length() > 0) {
-            reeferDTO.setMaintenanceReleaseDate(reefer.getString(Constants.REEFERS_MAINTENANCE_DATE));
+            releaseDay = EpochDay.parse(reefer.getString(Constants.REEFERS_MAINTENANCE_DATE));
         }
-        return reeferDTO;
+        return inventory.put(reefer.getInt(Constants.REEFER_ID_KEY),
+                ReeferState.State.valueOf(reefer.getString(Constants.REEFER_STATE_KEY)),
+                reefer.getString(Constants.ORDER_ID_KEY), reefer.getString(Constants.VOYAGE_ID_KEY), releaseDay);
     }
 
-    private JsonObject reeferToJsonObject(ReeferDTO reefer) {
-        return reeferToJsonObject(reefer, Json.createObjectBuilder());
+    private JsonObject reeferToJsonObject(int reeferId) {
+        return reeferToJsonObject(reeferId, Json.createObjectBuilder());
     }
 
-    private JsonObject reeferToJsonObject(ReeferDTO reefer, JsonObjectBuilder reeferObjectBuilder) {
-        reeferObjectBuilder.add(Constants.REEFER_ID_KEY, reefer.getId())
-                .add(Constants.REEFER_STATE_KEY, reefer.getState().name())
-                .add(Constants.ORDER_ID_KEY, reefer.getOrderId())
-                .add(Constants.VOYAGE_ID_KEY, reefer.getVoyageId());
-        if (reefer.getMaintenanceReleaseDate() != null) {
-            reeferObjectBuilder.add(Constants.REEFERS_MAINTENANCE_DATE, reefer.getMaintenanceReleaseDate());
+    private JsonObject reeferToJsonObject(int reeferId, JsonObjectBuilder reeferObjectBuilder) {
+        int slot = inventory.slotOf(reeferId);
+        reeferObjectBuilder.add(Constants.REEFER_ID_KEY, reeferId)
+                .add(Constants.REEFER_STATE_KEY, inventory.stateAt(slot).name())
+                .add(Constants.ORDER_ID_KEY, inventory.orderAt(slot))
+                .add(Constants.VOYAGE_ID_KEY, inventory.voyageAt(slot));
+        int releaseDay = inventory.getMaintenanceReleaseDay(reeferId);
+        if (releaseDay != DepotInventory.NO_RELEASE_DATE) {
+            reeferObjectBuilder.add(Constants.REEFERS_MAINTENANCE_DATE, EpochDay.format(releaseDay));
         }
         return reeferObjectBuilder.build();
     }
 
     private void initMasterInventory(InventoryConfig config) {
         try {
-            reeferMasterInventory = new ReeferDTO[config.getGlobalInventorySize()];
+            inventory = new DepotInventory(config.getShards());
+            freeList = new ReeferFreeList(inventory.capacity());
             JsonObjectBuilder job = Json.createObjectBuilder();
             Map<String, JsonValue> map = new HashMap<>(config.getDepotSize() );
             JsonObjectBuilder reeferObjectBuilder = Json.createObjectBuilder();
             for( Shard shard : config.getShards()) {
                 for (int id = Long.valueOf(shard.getLowerBound()).intValue(); id <= shard.getUpperBound(); id++) {
-                    reeferMasterInventory[id] = new ReeferDTO(id, ReeferState.State.UNALLOCATED);
+                    freeList.release(inventory.add(id, ReeferState.State.UNALLOCATED));
 
                     // JsonObjectBuilder is expensive object to create. Reuse single instance to improve
                     // performance. In the <code>reeferToJsonObject()</code> the instance is used to
                     // create a JsonObject and when its build() is called it internally clears its state
                     // and thus allows for reuse.
-                    map.put(String.valueOf(id), reeferToJsonObject(reeferMasterInventory[id], reeferObjectBuilder));
+                    map.put(String.valueOf(id), reeferToJsonObject(id, reeferObjectBuilder));
                 }
             }
             long t = System.currentTimeMillis();
@@ -817,28 +870,45 @@ public class DepotActor extends BaseActor {
     private JsonObject getReeferStats() {
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("DepotActor.getReeferStats() - totalBooked:" + bookedTotalCount + " in-transit:"
-                    + 0 + " spoilt:" + 0 + " on-maintenance:" + onMaintenanceMap.size());
+                    + 0 + " spoilt:" + 0 + " on-maintenance:" + onMaintenanceCount());
         }
         return Json.createObjectBuilder().add("total", totalReeferInventory).add("totalBooked", bookedTotalCount)
                 .add("totalInTransit", 0).add("totalSpoilt", 0)
-                .add("totalOnMaintenance", onMaintenanceMap.size()).build();
+                .add("totalOnMaintenance", onMaintenanceCount()).build();
+    }
+
+    private int onMaintenanceCount() {
+        return inventory == null ? 0 : inventory.count(ReeferState.State.MAINTENANCE);
     }
 
-    private void setReeferOnMaintenance(ReeferDTO reefer, String today) {
+    private void setReeferOnMaintenance(int reeferId, Instant today) {
         // assign reefer off maintenance date which is N days from today. Currently N=2
-        reefer.setMaintenanceReleaseDate(today);
-        reefer.setState(ReeferState.State.MAINTENANCE);
+        int releaseDay = EpochDay.of(today) + Constants.REEFER_DAYS_ON_MAINTENANCE;
+        inventory.setOnMaintenance(reeferId, releaseDay);
+        freeList.remove(inventory.slotOf(reeferId));
+
+        maintenanceCalendar.schedule(reeferId, releaseDay);
+    }
 
-        onMaintenanceMap.put(reefer.getId(), reefer.getId());
+    private void releaseToInventory(int reeferId) {
+        inventory.reset(reeferId);
+        freeList.release(inventory.slotOf(reeferId));
+    }
+
+    private void removeFromInventory(int reeferId) {
+        freeList.remove(inventory.slotOf(reeferId));
+        inventory.remove(reeferId);
     }
 
     private void updateStore(Map<String, List<String>> deleteMap, Map<String, JsonValue> updateMap) {
         String metrics = getMetricsString();
 
         // Save this depot reefer metrics in DepotManager Map
-        ActorRef depotManagerActor = Kar.Actors.ref(ReeferAppConfig.DepotManagerActorType, ReeferAppConfig.DepotManagerId);
-        Kar.Actors.State.Submap.set(depotManagerActor, Constants.REEFER_METRICS_MAP_KEY, getId(), Json.createValue(metrics));
+        publishMetrics(metrics, false);
+        saveState(deleteMap, updateMap, metrics);
+    }
 
+    private void saveState(Map<String, List<String>> deleteMap, Map<String, JsonValue> updateMap, String metrics) {
         Map<String, JsonValue> actorStateMap = new HashMap<>();
         actorStateMap.put(Constants.REEFER_METRICS_KEY, Json.createValue(metrics));
 
@@ -848,37 +918,72 @@ public class DepotActor extends BaseActor {
     }
 
 
-    private void unReserveReefer(ReeferDTO reefer, Map<String, JsonValue> onmr, String arrivalDate) {
-        if (reefer.getState().equals(ReeferState.State.MAINTENANCE)) {
+    private void unReserveReefer(int reeferId, Map<String, JsonValue> onmr, String arrivalDate) {
+        if (inventory.getState(reeferId).equals(ReeferState.State.MAINTENANCE)) {
             logger.warning(
-                    "DepotActor.unreserveReefer() - reefer >>>>>>> " + reefer.getId() + " is on-maintenance unexpectedly - it should be spoilt instead");
+                    "DepotActor.unreserveReefer() - reefer >>>>>>> " + reeferId + " is on-maintenance unexpectedly - it should be spoilt instead");
         }
         // Reefers can be marked as spoilt only during the voyage. When a voyage ends
         // all spoilt reefers are placed on maintenance.
-        if (reefer.getState().equals(ReeferState.State.SPOILT)) {
-            reefer.removeFromVoyage();
-            reefer.setMaintenanceReleaseDate(arrivalDate);
-            reefer.setState(ReeferState.State.MAINTENANCE);
-            onMaintenanceMap.put(reefer.getId(), reefer.getId());
-            onmr.put(String.valueOf(reefer.getId()), reeferToJsonObject(reefer));
+        if (inventory.getState(reeferId).equals(ReeferState.State.SPOILT)) {
+            int releaseDay = EpochDay.parse(arrivalDate) + Constants.REEFER_DAYS_ON_MAINTENANCE;
+            inventory.setOnMaintenance(reeferId, releaseDay);
+            maintenanceCalendar.schedule(reeferId, releaseDay);
+            onmr.put(String.valueOf(reeferId), reeferToJsonObject(reeferId));
         } else {
-            reefer.reset();
+            releaseToInventory(reeferId);
         }
     }
 
-    private List<ReeferDTO> voyageAllocatedReefers(String voyageId) {
-        return Arrays.stream(reeferMasterInventory).
-                filter(Objects::nonNull).
-                filter(reefer -> reefer.getVoyageId().equals(voyageId)).
-                peek(reefer -> {
-                    // don't overwrite reefer state if it's spoilt
-                    if (reefer.getState().equals(ReeferState.State.ALLOCATED)) {
-                        // The INTRANSIT state is not currently being used in DepotActor. If it needs to be
-                        // checked save the reefer map to persist the change by first deleting reefer map in
-                        // kar storage and saving the updated map.
-                        reefer.setState(ReeferState.State.INTRANSIT);
-                    }
-                }).collect(Collectors.toList());
+    private List<Integer> voyageAllocatedReefers(String voyageId) {
+        // the inventory indexes reefers by voyage so only this voyage reefers are visited
+        int[] reeferIds = inventory.voyageReefers(voyageId);
+        List<Integer> voyageReefers = new ArrayList<>(reeferIds.length);
+        for (int reeferId : reeferIds) {
+            // don't overwrite reefer state if it's spoilt
+            if (inventory.getState(reeferId).equals(ReeferState.State.ALLOCATED)) {
+                // The INTRANSIT state is not currently being used in DepotActor. If it needs to be
+                // checked save the reefer map to persist the change by first deleting reefer map in
+                // kar storage and saving the updated map.
+                inventory.setState(reeferId, ReeferState.State.INTRANSIT);
+            }
+            voyageReefers.add(reeferId);
+        }
+        return voyageReefers;
+    }
+
+    /**
+     * Publishes depot metrics to the DepotManager at most once per
+     * ReeferAppConfig.DepotMetricsPublishIntervalMillis. Changes made within the
+     * interval are flushed by a reminder when the interval expires.
+     *
+     * @param metrics - current depot metrics
+     * @param force - publish now regardless of the interval
+     */
+    private void publishMetrics(String metrics, boolean force) {
+        if (metrics.equals(publishedMetrics)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (force || now - metricsPublishedAt >= ReeferAppConfig.DepotMetricsPublishIntervalMillis) {
+            ActorRef depotManagerActor = Kar.Actors.ref(ReeferAppConfig.DepotManagerActorType, ReeferAppConfig.DepotManagerId);
+            Kar.Actors.State.Submap.set(depotManagerActor, Constants.REEFER_METRICS_MAP_KEY, getId(), Json.createValue(metrics));
+            publishedMetrics = metrics;
+            metricsPublishedAt = now;
+        } else if (!metricsFlushScheduled) {
+            // one-shot reminder, no period
+            Kar.Actors.Reminders.schedule(this, "flushMetrics", METRICS_REMINDER_ID,
+                    Instant.ofEpochMilli(metricsPublishedAt + ReeferAppConfig.DepotMetricsPublishIntervalMillis), null);
+            metricsFlushScheduled = true;
+        }
+    }
+
+    @Remote
+    public void flushMetrics() {
+        metricsFlushScheduled = false;
+        if (inventory != null) {
+            publishMetrics(getMetricsString(), true);
+        }
     }
 
     private void saveMetrics() {
@@ -892,9 +997,10 @@ public class DepotActor extends BaseActor {
     }
 
     private String getMetricsString() {
-        return String.format("%d:%d:%d:%d:%d:%d:%d", bookedTotalCount, 0,
-                0, onMaintenanceMap.size(), ((JsonNumber) totalReeferInventory).intValue(),
-                ((JsonNumber) currentInventorySize).intValue(), ((JsonNumber) depotSize).intValue());
+        return new StringBuilder(48).append(bookedTotalCount).append(":0:0:").append(onMaintenanceCount()).
+                append(':').append(((JsonNumber) totalReeferInventory).intValue()).
+                append(':').append(((JsonNumber) currentInventorySize).intValue()).
+                append(':').append(((JsonNumber) depotSize).intValue()).toString();
     }
 
     private class Inventory {
@@ -953,17 +1059,17 @@ public class DepotActor extends BaseActor {
     }
     private class ReeferAllocationStatus {
 
-        private List<ReeferDTO> orderReefersList = null;
+        private int[] orderReefersList = null;
         private boolean failed;
 
         protected ReeferAllocationStatus() {
             failed = ALLOCATION_FAILED;
         }
-        protected ReeferAllocationStatus(List<ReeferDTO> orderReefers) {
+        protected ReeferAllocationStatus(int[] orderReefers) {
             this.orderReefersList = orderReefers;
             this.failed = false;
         }
-        public List<ReeferDTO> getOrderReefersList() {
+        public int[] getOrderReefersList() {
             return orderReefersList;
         }
         public boolean failed() {
@@ -972,16 +1078,5 @@ public class DepotActor extends BaseActor {
         public void setFailed() {
             failed = true;
         }
-
-        public JsonArray reefersToJsonArray() {
-            if ( !failed ) {
-                JsonArrayBuilder jab = Json.createArrayBuilder();
-                for( ReeferDTO reefer: orderReefersList ) {
-                   jab.add(reeferToJsonObject(reefer));
-                }
-                return jab.build();
-            }
-            return Json.createArrayBuilder().build();
-        }
     }
 }
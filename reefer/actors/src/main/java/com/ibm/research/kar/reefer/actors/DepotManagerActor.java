@@ -21,6 +21,7 @@ import com.ibm.research.kar.actor.annotations.Activate;
 import com.ibm.research.kar.actor.annotations.Actor;
 import com.ibm.research.kar.actor.annotations.Remote;
 import com.ibm.research.kar.reefer.ReeferAppConfig;
+import com.ibm.research.kar.reefer.common.AnomalyManagerRouter;
 import com.ibm.research.kar.reefer.common.Constants;
 import com.ibm.research.kar.reefer.common.FleetCapacity;
 import com.ibm.research.kar.reefer.common.ReeferLoggerFormatter;
@@ -43,6 +44,8 @@ public class DepotManagerActor extends BaseActor {
     private static Logger logger = ReeferLoggerFormatter.getFormattedLogger(DepotManagerActor.class.getName());
     private List<Depot> depots = new LinkedList<>();
     private long totalInventorySize = 0;
+    // lower reefer id bound of each anomaly manager shard
+    private JsonArray anomalyShards = JsonValue.EMPTY_JSON_ARRAY;
 
     @Activate
     public void activate() {
@@ -67,7 +70,6 @@ public class DepotManagerActor extends BaseActor {
                 inx += assignShardToDepot(route.getDestinationPort(),route.getVessel().getId(),route.getVessel().getMaxCapacity(), inx );
             }
             totalInventorySize = inx;
-            JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
             Map<String, JsonValue> depotMap = new HashMap<>();
             JsonObjectBuilder mapJob = Json.createObjectBuilder();
 
@@ -77,19 +79,11 @@ public class DepotManagerActor extends BaseActor {
                 // build() clears the state of the builder so we can reuse it.
                 depot.serialize(mapJob);
                 depotMap.put(depot.getId(), mapJob.build());
-
-                JsonObjectBuilder job = Json.createObjectBuilder();
-                depot.serialize( job);
-                arrayBuilder.add(job);
             }
 
             Kar.Actors.State.Submap.set(this, Constants.DEPOTS_KEY, depotMap);
             Kar.Actors.State.set(this, Constants.TOTAL_REEFER_COUNT_KEY, Json.createValue(totalInventorySize));
-
-            JsonObjectBuilder job = Json.createObjectBuilder();
-            job.add(Constants.TOTAL_REEFER_COUNT_KEY, totalInventorySize).add(Constants.DEPOTS_KEY, arrayBuilder);
-            ActorRef anomalyManagerActor = Kar.Actors.ref(ReeferAppConfig.AnomalyManagerActorType, ReeferAppConfig.AnomalyManagerId);
-            Kar.Actors.tell(anomalyManagerActor, "depotReefers", job.build());
+            partitionAnomalyManagers(null);
 
         } else {
 
@@ -99,6 +93,14 @@ public class DepotManagerActor extends BaseActor {
                 for (JsonValue jv : depotMap.values()) {
                     depots.add(deserializeDepot(jv.asJsonObject()));
                 }
+                JsonValue shardCount = state.get(Constants.ANOMALY_MANAGER_SHARD_COUNT_KEY);
+                if (shardCount != null && ((JsonNumber) shardCount).intValue() == ReeferAppConfig.AnomalyManagerShardCount) {
+                    anomalyShards = state.get(Constants.ANOMALY_MANAGER_SHARDS_KEY).asJsonArray();
+                } else {
+                    logger.warning("DepotManager.activate() - anomaly manager shard count changed to " +
+                            ReeferAppConfig.AnomalyManagerShardCount + " - partitioning reefers again");
+                    partitionAnomalyManagers(state.get(Constants.ANOMALY_MANAGER_SHARDS_KEY));
+                }
             } catch (Exception e) {
                 logger.log(Level.SEVERE,"DepotManager.activate() - Error ", e);
             }
@@ -106,6 +108,62 @@ public class DepotManagerActor extends BaseActor {
         Kar.Actors.Reminders.schedule(this, "publishReeferMetrics", "AAA", Instant.now().plus(1, ChronoUnit.SECONDS), Duration.ofMillis(1000));
     }
 
+    /**
+     * Splits reefer ids into anomaly manager ranges along depot shard boundaries, saves
+     * the ranges and sends each anomaly manager the depot reefers in its range.
+     *
+     * @param previous - previously saved ranges or null. Anomaly managers are not sent
+     *                   their reefers again if the ranges did not change.
+     */
+    private void partitionAnomalyManagers(JsonValue previous) {
+        List<Shard> shards = new ArrayList<>();
+        depots.forEach(depot -> shards.addAll(depot.getShards()));
+        int[] bounds = AnomalyManagerRouter.partition(shards, ReeferAppConfig.AnomalyManagerShardCount);
+        anomalyShards = AnomalyManagerRouter.serialize(bounds);
+        Map<String, JsonValue> updates = new HashMap<>();
+        updates.put(Constants.ANOMALY_MANAGER_SHARDS_KEY, anomalyShards);
+        updates.put(Constants.ANOMALY_MANAGER_SHARD_COUNT_KEY, Json.createValue(ReeferAppConfig.AnomalyManagerShardCount));
+        Kar.Actors.State.set(this, updates);
+        if (anomalyShards.equals(previous)) {
+            return;
+        }
+        if (previous != null && previous != JsonValue.NULL) {
+            // routers cached the old bounds, depots update the router of the process hosting them
+            JsonObject shardsMessage = anomalyManagerShards();
+            for (Depot depot : depots) {
+                Kar.Actors.tell(Kar.Actors.ref(ReeferAppConfig.DepotActorType, depot.getId()), "anomalyManagerShardsChanged", shardsMessage);
+            }
+        }
+
+        JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+        for (Depot depot : depots) {
+            JsonObjectBuilder job = Json.createObjectBuilder();
+            depot.serialize( job);
+            arrayBuilder.add(job);
+        }
+        JsonArray jsonDepots = arrayBuilder.build();
+        for (int shard = 0; shard < bounds.length; shard++) {
+            JsonObjectBuilder job = Json.createObjectBuilder();
+            job.add(Constants.TOTAL_REEFER_COUNT_KEY, totalInventorySize).add(Constants.DEPOTS_KEY, jsonDepots).
+                    add(Constants.ANOMALY_SHARD_LOWER_BOUND_KEY, bounds[shard]).
+                    add(Constants.ANOMALY_SHARD_UPPER_BOUND_KEY,
+                            shard + 1 < bounds.length ? bounds[shard + 1] - 1 : totalInventorySize - 1);
+            ActorRef anomalyManagerActor = Kar.Actors.ref(ReeferAppConfig.AnomalyManagerActorType,
+                    AnomalyManagerRouter.anomalyManagerId(shard));
+            Kar.Actors.tell(anomalyManagerActor, "depotReefers", job.build());
+        }
+    }
+
+    /**
+     * @return - number of anomaly manager shards and the lower reefer id bound of each
+     */
+    @Remote
+    public JsonObject anomalyManagerShards() {
+        return Json.createObjectBuilder().
+                add(Constants.ANOMALY_MANAGER_SHARD_COUNT_KEY, ReeferAppConfig.AnomalyManagerShardCount).
+                add(Constants.ANOMALY_MANAGER_SHARDS_KEY, anomalyShards).build();
+    }
+
     private int assignShardToDepot(String depotName, String shipName, int shipMaxCapacity, int beginRange) {
         // a depot can be in multiple voyages so either create new or fetch existing
         Depot depot = getDepot(depotName);
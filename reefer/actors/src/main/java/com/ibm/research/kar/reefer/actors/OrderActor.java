@@ -29,6 +29,7 @@ import org.apache.commons.lang.exception.ExceptionUtils;
 
 import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.JsonString;
 import javax.json.JsonValue;
 import java.util.Map;
 import java.util.logging.Level;
@@ -112,7 +113,7 @@ public class OrderActor extends BaseActor {
 
    @Remote
    public void replaceReefer(JsonObject message) {
-      if (order == null) {
+      if (order == null || !reconcileStatus()) {
          Kar.Actors.remove(this);
          return;
       }
@@ -120,16 +121,6 @@ public class OrderActor extends BaseActor {
               method("replaceReefer").arg(message).tell();
    }
 
-   /**
-    * Called when an order is delivered (ie.ship arrived at the destination port).
-    *
-    * @return
-    */
-   @Remote
-   public void delivered() {
-      Kar.Actors.remove(this);
-   }
-
    @Remote
    public void cancel() {
       logger.warning(String.format("OrderActor.cancel() - orderId: %s - order cancelled due to rollback", getId()));
@@ -137,27 +128,26 @@ public class OrderActor extends BaseActor {
    }
 
    /**
-    * Called when ship departs from an origin port.
+    * Voyage departures and arrivals are applied in bulk by the OrderManager which does not
+    * notify order actors. Booked orders fetch their current status from the OrderManager
+    * and save it if it changed.
     *
-    * @return
+    * @return - false if the order is no longer active (delivered)
     */
-   @Remote
-   public JsonObject departed() {
-      if (order == null) {
-         Kar.Actors.remove(this);
-         return Json.createObjectBuilder().add(Constants.STATUS_KEY, Constants.FAILED)
-                 .add(Constants.ORDER_ID_KEY, String.valueOf(this.getId())).add("ERROR", "Order Already Arrived").build();
+   private boolean reconcileStatus() {
+      if (!OrderStatus.BOOKED.name().equals(order.getStatus()) && !OrderStatus.INTRANSIT.name().equals(order.getStatus())) {
+         return true;
       }
-      if (!OrderStatus.DELIVERED.name().equals(order.getStatus()) && !OrderStatus.INTRANSIT.name().equals(order.getStatus())) {
-         saveOrderStatusChange(OrderStatus.INTRANSIT);
+      JsonValue status = Actors.Builder.instance().target(ReeferAppConfig.OrderManagerActorType, ReeferAppConfig.OrderManagerId).
+              method("orderStatus").arg(Json.createValue(getId())).call(this);
+      if (status == null || status == JsonValue.NULL) {
+         return false;
       }
-      return Json.createObjectBuilder().add(Constants.STATUS_KEY, Constants.OK)
-              .add(Constants.ORDER_ID_KEY, String.valueOf(this.getId())).build();
-   }
-
-   private JsonObject saveOrderStatusChange(OrderStatus state) {
-      order.setStatus(state.name());
-      Kar.Actors.State.set(this, Constants.ORDER_KEY, order.getAsJsonObject());
-      return order.getAsJsonObject();
+      String currentStatus = ((JsonString) status).getString();
+      if (!currentStatus.equals(order.getStatus())) {
+         order.setStatus(currentStatus);
+         Kar.Actors.State.set(this, Constants.ORDER_KEY, order.getAsJsonObject());
+      }
+      return true;
    }
 }
@@ -25,7 +25,6 @@ import com.ibm.research.kar.reefer.ReeferAppConfig;
 import com.ibm.research.kar.reefer.common.Constants;
 import com.ibm.research.kar.reefer.common.FixedSizeQueue;
 import com.ibm.research.kar.reefer.common.ReeferLoggerFormatter;
-import com.ibm.research.kar.reefer.model.JsonOrder;
 import com.ibm.research.kar.reefer.model.Order;
 import com.ibm.research.kar.reefer.model.OrderProperties;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -293,6 +292,42 @@ public class OrderManagerActor extends BaseActor {
       }
    }
 
+   /**
+    * Moves all orders of a voyage to a new status in a single call. Order actors are
+    * not notified, they reconcile their status through orderStatus() the next time
+    * they are invoked.
+    *
+    * @param message - voyage id, order ids and the new status, either INTRANSIT or DELIVERED
+    */
+   @Remote
+   public void voyageOrdersTransition(JsonObject message) {
+      String status = message.getString(Constants.ORDER_STATUS_KEY);
+      JsonArray orders = message.getJsonArray(Constants.ORDERS_KEY);
+      if (Order.OrderStatus.INTRANSIT.name().equals(status)) {
+         ordersDeparted(message);
+      } else if (Order.OrderStatus.DELIVERED.name().equals(status)) {
+         ordersArrived(orders);
+      } else {
+         logger.log(Level.WARNING, "OrderManagerActor.voyageOrdersTransition() - voyage: " + message.getString(Constants.VOYAGE_ID_KEY) +
+                 " unsupported order status: " + status);
+      }
+   }
+
+   /**
+    * Returns the status of an active order
+    *
+    * @param orderId - order id
+    * @return - order status or JsonValue.NULL if the order is no longer active (delivered)
+    */
+   @Remote
+   public JsonValue orderStatus(JsonString orderId) {
+      JsonValue activeOrder = activeOrders.get(orderId.getString());
+      if (activeOrder == null) {
+         return JsonValue.NULL;
+      }
+      return Json.createValue(new Order(activeOrder.asJsonObject()).getStatus());
+   }
+
    @Remote
    public void ordersArrived(JsonValue message) {
       List<String> orders2Remove = new ArrayList<>();
@@ -1,7 +1,5 @@
 package com.ibm.research.kar.reefer.actors;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.ibm.research.kar.Kar;
 import com.ibm.research.kar.actor.ActorRef;
 import com.ibm.research.kar.actor.annotations.Activate;
@@ -17,7 +15,6 @@ import com.ibm.research.kar.reefer.common.time.TimeUtils;
 import com.ibm.research.kar.reefer.model.Route;
 import com.ibm.research.kar.reefer.model.Vessel;
 import com.ibm.research.kar.reefer.model.Voyage;
-import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
 import javax.json.*;
@@ -25,10 +22,8 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 @Actor
 public class ScheduleManagerActor extends BaseActor {
@@ -62,6 +57,9 @@ public class ScheduleManagerActor extends BaseActor {
                 lastScheduleDate = coldStart();
             } else {
                 lastScheduleDate = warmStart(state, baseDateValue);
+                if (state.containsKey(Constants.VOYAGES_WITH_ORDERS_KEY)) {
+                    schedule.restoreVoyagesWithOrders(state.get(Constants.VOYAGES_WITH_ORDERS_KEY).asJsonObject().keySet());
+                }
                 if (state.containsKey(Constants.ACTIVE_VOYAGES_KEY)) {
                     Map<String, JsonValue> activeVoyages = new HashMap<>();
                     activeVoyages.putAll(state.get(Constants.ACTIVE_VOYAGES_KEY).asJsonObject());
@@ -70,12 +68,10 @@ public class ScheduleManagerActor extends BaseActor {
                         Voyage restoredVoyage = VoyageJsonSerializer.deserialize(jv.asJsonObject());
                         restoredActiveList.add( restoredVoyage );
                     }
-                    activeVoyageManager = new ActiveVoyageManager(schedule, restoredActiveList);
                 }
             }
-            if ( activeVoyageManager == null ) {
-                activeVoyageManager = new ActiveVoyageManager(schedule, new LinkedList<>());
-            } else {
+            activeVoyageManager = new ActiveVoyageManager(schedule);
+            if ( !restoredActiveList.isEmpty() ) {
                 restoreActiveVoyages(restoredActiveList);
             }
             Kar.Actors.State.set(this, Constants.SCHEDULE_END_DATE_KEY, Json.createValue(lastScheduleDate.toString()));
@@ -178,7 +174,9 @@ public class ScheduleManagerActor extends BaseActor {
 
     private void restoreActiveVoyages( List<Voyage> activeVoyages ) {
          int inTransit = 0;
+        List<String> restoredIds = new ArrayList<>();
         for (Voyage recoveredVoyageState : activeVoyages) {
+            restoredIds.add(recoveredVoyageState.getId());
             try {
                 Voyage voyage = schedule.getVoyage(recoveredVoyageState.getId());
                 voyage.setOrderCount(recoveredVoyageState.getOrderCount());
@@ -190,6 +188,8 @@ public class ScheduleManagerActor extends BaseActor {
                 logger.warning("ScheduleManagerActor.restoreActiveVoyages() - voyage:"+recoveredVoyageState.getId()+" not in master schedule - current date:"+TimeUtils.getInstance().getCurrentDate());
             }
         }
+        // saved entries of voyages no longer active are removed once the window is positioned
+        schedule.getActiveVoyageWindow().restored(restoredIds);
         reefersInTransit = Json.createValue(inTransit);
         Kar.Actors.State.set(this, Constants.REEFERS_IN_TRANSIT_COUNT_KEY, reefersInTransit);
     }
@@ -226,13 +226,20 @@ public class ScheduleManagerActor extends BaseActor {
 
         try {
             Instant lastDepartureDate = schedule.lastVoyageDepartureDate();
-            long daysBetween = TimeUtils.getInstance().getDaysBetween(today, lastDepartureDate);
-            if (daysBetween < schedule.THRESHOLD_IN_DAYS) {
-                // On a day change generate a future schedule if necessary. The new schedule is generated if
-                // we reached a configured threshold of days before the end of current schedule.
-                Instant scheduleEndDate = schedule.extendSchedule(baseDate, lastDepartureDate, today);
+            // On a day change roll the schedule forward. Only voyages departing on the
+            // new days at the end of the schedule are generated.
+            Instant scheduleEndDate = schedule.extendSchedule(today);
+            if (!scheduleEndDate.equals(lastDepartureDate)) {
                 Kar.Actors.State.set(this, Constants.SCHEDULE_END_DATE_KEY, Json.createValue(scheduleEndDate.toString()));
             }
+            // voyages past the retention window drop their archived state
+            List<String> expiredVoyages = schedule.drainExpiredVoyages();
+            for (String voyageId : expiredVoyages) {
+                Kar.Actors.tell(Kar.Actors.ref(ReeferAppConfig.VoyageActorType, voyageId), "expire");
+            }
+            if (!expiredVoyages.isEmpty()) {
+                Kar.Actors.State.Submap.removeAll(this, Constants.VOYAGES_WITH_ORDERS_KEY, expiredVoyages);
+            }
             JsonObject message = Json.createObjectBuilder().add(Constants.DATE_KEY, Json.createValue(today.toString()))
                     .build();
             // Reefers on maintenance are freed automatically after a configurable number of days passes.
@@ -259,6 +266,10 @@ public class ScheduleManagerActor extends BaseActor {
             scheduledVoyage.setFreeCapacity(voyage.getRoute().getVessel().getFreeCapacity());
             scheduledVoyage.setOrderCount(voyage.getOrderCount());
             scheduledVoyage.setReeferCount((voyage.getReeferCount()));
+            if (voyage.getOrderCount() > 0 && schedule.voyageTookOrder(voyage.getId())) {
+                // persisted so that the voyage state is removed on expiry after a restart
+                Kar.Actors.State.Submap.set(this, Constants.VOYAGES_WITH_ORDERS_KEY, voyage.getId(), JsonValue.TRUE);
+            }
         } catch (Exception e) {
             logger.log(Level.WARNING,"ScheduleManagerActor.updateVoyage() - error ",e);
         }
@@ -316,8 +327,8 @@ public class ScheduleManagerActor extends BaseActor {
 
     @Remote
     public JsonValue matchingVoyages(JsonObject message) {
-        String originPort = "";
-        String destinationPort = "";
+        String originPort = message.getString("origin");
+        String destinationPort = message.getString("destination");
         Instant date = null;
         String departureDate = message.getString("departureDate");
         date = Instant.parse(departureDate);
@@ -325,7 +336,7 @@ public class ScheduleManagerActor extends BaseActor {
             logger.fine("ScheduleManagerActor.getMatchingVoyages() - origin:" + originPort + " destination:"
                     + destinationPort + " date:" + departureDate);
         }
-        return voyageListToJsonArray(schedule.getMatchingSchedule(message.getString("origin"), message.getString("destination"), date));
+        return voyageListToJsonArray(schedule.getMatchingSchedule(originPort, destinationPort, date));
     }
 
     @Remote
@@ -440,33 +451,24 @@ public class ScheduleManagerActor extends BaseActor {
     private class ActiveVoyageManager {
         private ActorRef scheduleManagerActor = Kar.Actors.ref(ReeferAppConfig.ScheduleManagerActorType, ReeferAppConfig.ScheduleManagerId);
         private final ScheduleService schedule;
-        private List<Voyage> activeVoyages;
-        ActiveVoyageManager(ScheduleService schedule, List<Voyage> activeVoyages) {
+        ActiveVoyageManager(ScheduleService schedule) {
             this.schedule = schedule;
-            this.activeVoyages = activeVoyages;
         }
         public List<Voyage> getActiveVoyages() {
-            List<Voyage> newActiveVoyages = schedule.getActiveVoyages();
-            if ( !newActiveVoyages.isEmpty() ) {
-                List<String> arrivedVoyages = getArrivedVoyages(newActiveVoyages);
-                activeVoyages.clear();
-                activeVoyages.addAll( newActiveVoyages);
-                // delete voyages that arrived and update those still en route
+            List<Voyage> activeVoyages = schedule.getActiveVoyages();
+            ActiveVoyageWindow window = schedule.getActiveVoyageWindow();
+            Collection<Voyage> changedVoyages = window.drainChanged();
+            List<String> arrivedVoyages = new ArrayList<>(window.drainLeft());
+            if ( !changedVoyages.isEmpty() || !arrivedVoyages.isEmpty() ) {
+                // delete voyages that left the window and update only those that changed
                 Kar.Actors.State.update(scheduleManagerActor, Collections.emptyList(),
-                        getArrivedVoyagesRemoveMap(arrivedVoyages), Collections.emptyMap(),  getActiveVoyageUpdateMap(newActiveVoyages));
+                        getArrivedVoyagesRemoveMap(arrivedVoyages), Collections.emptyMap(),  getActiveVoyageUpdateMap(changedVoyages));
             }
             return activeVoyages;
         }
-        private List<String> getArrivedVoyages(final List<Voyage>newActiveVoyages) {
-            // get a list of arrived voyages which need to be removed from active list.
-            return activeVoyages.stream()
-                    .filter(voyage -> !newActiveVoyages.contains(voyage))
-                    .map(Voyage::getId)
-                    .collect(Collectors.toList());
-        }
-        private  Map<String, Map<String, JsonValue>> getActiveVoyageUpdateMap(List<Voyage> newActiveVoyages) {
+        private  Map<String, Map<String, JsonValue>> getActiveVoyageUpdateMap(Collection<Voyage> changedVoyages) {
             Map<String, JsonValue> updateMap = new HashMap<>();
-            for( Voyage voyage : newActiveVoyages ) {
+            for( Voyage voyage : changedVoyages ) {
                 updateMap.put( voyage.getId(), VoyageJsonSerializer.serialize(voyage));
             }
             Map<String, Map<String, JsonValue>> subMapUpdates = new HashMap<>();
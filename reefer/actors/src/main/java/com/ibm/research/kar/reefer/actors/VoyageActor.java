@@ -22,14 +22,17 @@ import com.ibm.research.kar.actor.annotations.Activate;
 import com.ibm.research.kar.actor.annotations.Actor;
 import com.ibm.research.kar.actor.annotations.Remote;
 import com.ibm.research.kar.reefer.ReeferAppConfig;
+import com.ibm.research.kar.reefer.common.AnomalyManagerRouter;
 import com.ibm.research.kar.reefer.common.Constants;
 import com.ibm.research.kar.reefer.common.ReeferAllocator;
+import com.ibm.research.kar.reefer.common.ReeferIdSet;
 import com.ibm.research.kar.reefer.common.ReeferLoggerFormatter;
 import com.ibm.research.kar.reefer.common.error.VoyageNotFoundException;
 import com.ibm.research.kar.reefer.common.json.VoyageJsonSerializer;
 import com.ibm.research.kar.reefer.model.JsonOrder;
 import com.ibm.research.kar.reefer.model.Order;
 import com.ibm.research.kar.reefer.model.Voyage;
+import com.ibm.research.kar.reefer.model.VoyageOrder;
 import com.ibm.research.kar.reefer.model.VoyageStatus;
 import javax.json.*;
 import java.time.Instant;
@@ -37,7 +40,6 @@ import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 
@@ -46,12 +48,16 @@ public class VoyageActor extends BaseActor {
    private JsonObject voyageInfo;
    private Voyage voyage = null;
    private JsonValue voyageStatus;
-   private Map<String, JsonValue> orders = new HashMap<>();
-   private Map<String, JsonValue> spoiltReefersMap = new HashMap<>();
-   private Map<String, String> reefer2OrderMap = new HashMap<>();
+   private Map<String, VoyageOrder> orders = new HashMap<>();
+   // order of each booked reefer, kept in step with orders
+   private Map<Integer, VoyageOrder> reeferOrders = new HashMap<>();
+   private ReeferIdSet spoiltReefers = new ReeferIdSet();
    private Map<String, JsonValue> spoiltOrders = new HashMap<>();
-   private Map<String, String> emptyReefersMap = new HashMap<>();
-   //private JsonValue emptyReefers = null;
+   private ReeferIdSet emptyReefers = new ReeferIdSet();
+   // reefers booked to voyage orders when the ship departed
+   private ReeferIdSet departedReefers = new ReeferIdSet();
+   // true once an arrived voyage compacted its state into an archived summary
+   private boolean archived = false;
    private static Logger logger = ReeferLoggerFormatter.getFormattedLogger(VoyageActor.class.getName());
 
    /**
@@ -61,6 +67,8 @@ public class VoyageActor extends BaseActor {
     */
    @Activate
    public void activate() {
+      // fails the activation rather than removing voyage state below
+      AnomalyManagerRouter.load(this);
       try {
          // fetch actor state from Kar storage
          Map<String, JsonValue> state = Kar.Actors.State.getAll(this);
@@ -86,6 +94,10 @@ public class VoyageActor extends BaseActor {
             Kar.Actors.State.set(this, Constants.TOTAL_SPOILT_KEY, Json.createValue(0));
             // store voyage information in Kar storage for reuse
             Kar.Actors.State.set(this, Constants.VOYAGE_INFO_KEY, voyageInfo);
+         } else if (state.containsKey(Constants.VOYAGE_ARCHIVE_KEY)) {
+            // arrived voyage, the summary is only loaded on a history query
+            archived = true;
+            return;
          } else {
             if (state.containsKey(Constants.VOYAGE_INFO_KEY)) {
                voyageInfo = state.get(Constants.VOYAGE_INFO_KEY).asJsonObject();
@@ -94,30 +106,25 @@ public class VoyageActor extends BaseActor {
                voyageStatus = state.get(Constants.VOYAGE_STATUS_KEY);
             }
             if (state.containsKey(Constants.VOYAGE_EMPTY_REEFERS_KEY)) {
-               JsonValue emptyReefers = state.get(Constants.VOYAGE_EMPTY_REEFERS_KEY);
-               String[] emptyReeferIds = ((JsonString)emptyReefers).getString().split(",");
-               for( String emptyReeferId : emptyReeferIds ) {
-                  emptyReefersMap.put(emptyReeferId, emptyReeferId);
-               }
-               logger.info("VoyageActor.activate() - voyageId:" + getId() + " restored empties - size:" + emptyReefersMap.size());
+               emptyReefers = ReeferIdSet.decode(((JsonString)state.get(Constants.VOYAGE_EMPTY_REEFERS_KEY)).getString());
+               logger.info("VoyageActor.activate() - voyageId:" + getId() + " restored empties - size:" + emptyReefers.size());
+            }
+            if (state.containsKey(Constants.DEPARTED_REEFERS_KEY)) {
+               departedReefers = ReeferIdSet.decode(((JsonString)state.get(Constants.DEPARTED_REEFERS_KEY)).getString());
             }
             if (state.containsKey(Constants.VOYAGE_ORDERS_KEY)) {
-               orders.putAll(state.get(Constants.VOYAGE_ORDERS_KEY).asJsonObject());
                int reeferCount=0;
-               // build reefer to order map so that we can efficiently retrieve order id
-               // when processing refer anomaly
-               for(Map.Entry<String, JsonValue> entry: orders.entrySet()) {
-                  DepotReply reeferBookingRecord = new DepotReply(entry.getValue());
-                  for( String reeferId : reeferBookingRecord.getReefers()) {
-                     reefer2OrderMap.put(reeferId, reeferBookingRecord.getOrderId());
-                     reeferCount++;
-                  }
+               for(Map.Entry<String, JsonValue> entry: state.get(Constants.VOYAGE_ORDERS_KEY).asJsonObject().entrySet()) {
+                  VoyageOrder order = decodeOrder(entry.getValue());
+                  addOrder(order);
+                  reeferCount += order.getReefers().size();
                }
                logger.info("VoyageActor.activate() - voyageId:" + getId() + " restored orders - size:" + orders.size()+" total reefers:"+reeferCount);
             }
             if (state.containsKey(Constants.SPOILT_REEFERS_KEY)) {
-               spoiltReefersMap.putAll(state.get(Constants.SPOILT_REEFERS_KEY).asJsonObject());
-               logger.info("VoyageActor.activate() - voyageId:" + getId() + " restored spoilt reefers - size:" + spoiltReefersMap.size());
+               state.get(Constants.SPOILT_REEFERS_KEY).asJsonObject().keySet().
+                       forEach(reeferId -> spoiltReefers.add(Integer.parseInt(reeferId)));
+               logger.info("VoyageActor.activate() - voyageId:" + getId() + " restored spoilt reefers - size:" + spoiltReefers.size());
             }
             if (state.containsKey(Constants.SPOILT_ORDERS_KEY)) {
                spoiltOrders.putAll(state.get(Constants.SPOILT_ORDERS_KEY).asJsonObject());
@@ -127,7 +134,7 @@ public class VoyageActor extends BaseActor {
          voyage = VoyageJsonSerializer.deserialize(voyageInfo);
       } catch (Exception e) {
          logSevereError("activate()", e);
-         Kar.Actors.remove(this);
+         removeState();
       }
 
    }
@@ -136,37 +143,37 @@ public class VoyageActor extends BaseActor {
       Order order = new Order(message);
       if ( voyage == null || voyage.arrived() ) {
          logger.warning("VoyageActor.rollbackOrder() voyageId:" + getId() + " - already arrived - unable to rollback order:" + order.getId() );
-         Kar.Actors.remove(this);
+         removeState();
          return;
       }
       if ( !orders.containsKey(order.getId() ) ) {
          logger.warning("VoyageActor.rollbackOrder() voyageId:" + getId() + " - unknown order:" + order.getId() );
          return;
       }
-      DepotReply reply = new DepotReply(orders.get(order.getId()).asJsonObject());
+      VoyageOrder voyageOrder = orders.get(order.getId());
       // ship already departed?
       if ( voyage.departed() ) {
          logger.warning("VoyageActor.rollbackOrder() voyageId:" + getId() + " already departed - unable to rollback order:" + order.getId() );
             // the order is on a ship at sea, so we can't remove it. Since OrderManager
             // does not know about this order (rollback call), let it know that
             // this order has been booked.
-            JsonObject booking = buildResponse(reply.getOrder(), voyage.getRoute().getVessel().getFreeCapacity());
-            Actors.Builder.instance().target(ReeferAppConfig.OrderActorType, reply.getOrderId()).
+            JsonObject booking = buildResponse(voyageOrder.toJson(getId()), voyage.getRoute().getVessel().getFreeCapacity());
+            Actors.Builder.instance().target(ReeferAppConfig.OrderActorType, voyageOrder.getId()).
                     method("processReeferBookingResult").arg(booking).tell();
       } else {
          // The ship is still at port. Tell Depot to undo reefer allocation for this order.
-         Actors.Builder.instance().target(ReeferAppConfig.DepotActorType, reply.getDepot()).
+         Actors.Builder.instance().target(ReeferAppConfig.DepotActorType, voyageOrder.getDepot()).
                  method("rollbackOrder").arg(order.getAsJsonObject()).tell();
          Actors.Builder.instance().target(ReeferAppConfig.OrderActorType, order.getId()).
                  method("cancel").arg().tell();
          // reduce voyage reefer count by amount allocated to the order being rolled back
-         voyage.setReeferCount(voyage.getReeferCount() - reply.getReeferCount());
-         voyage.incrementFreeCapacity(reply.getReeferCount());
+         voyage.setReeferCount(voyage.getReeferCount() - voyageOrder.getReefers().size());
+         voyage.incrementFreeCapacity(voyageOrder.getReefers().size());
          // update voyage state and remove order from persistent map
-         updateState(reply);
+         updateState(voyageOrder.getId());
          Actors.Builder.instance().target(ReeferAppConfig.ScheduleManagerActorType, ReeferAppConfig.ScheduleManagerId).
                  method("updateVoyage").arg(VoyageJsonSerializer.serialize(voyage)).tell();
-         orders.remove(order.getId());
+         removeOrder(voyageOrder);
          logger.warning("VoyageActor.rollbackOrder() voyageId:" + getId() + " - order:" + order.getId()+" rolled back" );
 
       }
@@ -182,7 +189,7 @@ public class VoyageActor extends BaseActor {
    @Remote
    public JsonValue changePosition(JsonObject message) {
       if ( voyage == null || voyage.shipArrived() ) {
-         Kar.Actors.remove(this);
+         removeState();
          return Json.createObjectBuilder().add(Constants.STATUS_KEY, Constants.OK)
                  .add(Constants.ORDER_ID_KEY, String.valueOf(this.getId())).build();
       }
@@ -203,27 +210,22 @@ public class VoyageActor extends BaseActor {
                voyageStatus = Json.createValue(VoyageStatus.ARRIVED.name());
                // notify voyage orders of arrival
                processArrivedVoyage(voyage);
-               // voyage arrived, no longer need the state
-               Kar.Actors.remove(this);
+               // voyage arrived, keep only a summary of its state
+               archive();
                if (logger.isLoggable(Level.INFO)) {
                   logger.info(
-                          "VoyageActor.changePosition() voyageId:" + voyage.getId() + " - ARRIVED - Actor state removed");
+                          "VoyageActor.changePosition() voyageId:" + voyage.getId() + " - ARRIVED - Actor state archived");
                }
             } else {
 
-               JsonObjectBuilder jb = Json.createObjectBuilder();
                if (voyage.shipDeparted(shipCurrentDate, getVoyageStatus())) {
-                  // notify voyage orders of departure
+                  // notify voyage orders of departure and save the departed voyage state
                   processDepartingVoyage(voyage);
-                  voyageStatus = Json.createValue(VoyageStatus.DEPARTED.name());
-                  jb.add(Constants.VOYAGE_STATUS_KEY, voyageStatus);
                } else {  // voyage in transit
                   Actors.Builder.instance().target(ReeferAppConfig.ScheduleManagerActorType, ReeferAppConfig.ScheduleManagerId).
                           method("positionChanged").arg(VoyageJsonSerializer.serialize(voyage)).tell();
+                  Kar.Actors.State.set(this, Constants.VOYAGE_INFO_KEY, VoyageJsonSerializer.serialize(voyage));
                }
-
-               jb.add(Constants.VOYAGE_INFO_KEY, VoyageJsonSerializer.serialize(voyage));
-               Kar.Actors.State.set(this, jb.build());
             }
          }
       } catch (Exception e) {
@@ -243,28 +245,25 @@ public class VoyageActor extends BaseActor {
          if ( voyage == null  || voyage.shipArrived() ) {
             logger.warning("VoyageActor.reeferAnomaly - voyageId:"+getId()+
                     " voyage already arrived - spoilt reefer:"+spoiltReeferId+" should be in the depot by now");
-            Kar.Actors.remove(this);
+            removeState();
             JsonObjectBuilder job = Json.createObjectBuilder();
             // switch anomaly mgr target from voyage to depot
             job.add(Constants.REEFER_ID_KEY, message.getJsonNumber(Constants.REEFER_ID_KEY)).
                     add(Constants.TARGET_KEY, Constants.DEPOT_TARGET_TYPE);
-            Actors.Builder.instance().target(ReeferAppConfig.AnomalyManagerActorType, ReeferAppConfig.AnomalyManagerId).
-                    method("reeferAnomaly").arg(job.build()).tell();
+            Kar.Actors.tell(AnomalyManagerRouter.anomalyManager(Integer.parseInt(spoiltReeferId)), "reeferAnomaly", job.build());
             return null;
          }
-         if ( emptyReefersMap.containsKey(spoiltReeferId) ) {
+         if ( emptyReefers.contains(Integer.parseInt(spoiltReeferId)) ) {
             return null;
          }
 
-         if ( !spoiltReefersMap.containsKey(spoiltReeferId)) {
-            spoiltReefersMap.put(spoiltReeferId, Json.createValue(spoiltReeferId));
-            if ( reefer2OrderMap.containsKey(spoiltReeferId) && !spoiltOrders.containsKey(reefer2OrderMap.get(spoiltReeferId)) ) {
-               String orderId = reefer2OrderMap.get(spoiltReeferId);
-               Order order = new Order(orders.get(orderId).asJsonObject().getJsonObject(JsonOrder.OrderKey));
-               spoiltOrders.put(orderId, Json.createValue(orderId));
+         if ( spoiltReefers.add(Integer.parseInt(spoiltReeferId))) {
+            VoyageOrder order = orderOf(Integer.parseInt(spoiltReeferId));
+            if ( order != null && !spoiltOrders.containsKey(order.getId()) ) {
+               spoiltOrders.put(order.getId(), Json.createValue(order.getId()));
                order.setSpoilt(true);
                return new Kar.Actors.TailCall( Kar.Actors.ref(ReeferAppConfig.OrderManagerActorType, ReeferAppConfig.OrderManagerId),
-                       "orderSpoilt",  updateTotalSpoiltReefersAndOrders(order));
+                       "orderSpoilt",  updateTotalSpoiltReefersAndOrders(order, spoiltReeferId));
             } else {
                updateTotalSpoiltReefers();
             }
@@ -274,25 +273,84 @@ public class VoyageActor extends BaseActor {
       }
       return null;
    }
-   private JsonObject updateTotalSpoiltReefersAndOrders(Order order) {
+   /**
+    * Batched version of reeferAnomaly. New spoilt reefers and orders are saved in a single
+    * state update and the OrderManager is told about each newly spoilt order.
+    *
+    * @param message - encoded ids of anomalous reefers on this voyage
+    */
+   @Remote
+   public void reeferAnomalies(JsonObject message) {
+      try {
+         ReeferIdSet reefers = ReeferIdSet.decode(message.getString(Constants.REEFERS_KEY));
+         if ( voyage == null  || voyage.shipArrived() ) {
+            logger.warning("VoyageActor.reeferAnomalies - voyageId:"+getId()+
+                    " voyage already arrived - spoilt reefers:"+reefers+" should be in the depot by now");
+            removeState();
+            // switch anomaly mgr target from voyage to depot. Echo the routing epoch so that
+            // the Anomaly Manager can tell whether it knows about the arrival yet.
+            JsonObjectBuilder job = Json.createObjectBuilder().add(Constants.TARGET_KEY, Constants.DEPOT_TARGET_TYPE);
+            if ( message.containsKey(Constants.ANOMALY_EPOCH_KEY) ) {
+               job.add(Constants.ANOMALY_EPOCH_KEY, message.get(Constants.ANOMALY_EPOCH_KEY));
+            }
+            AnomalyManagerRouter.tellAnomalies(reefers, job.build());
+            return;
+         }
+         Map<String, JsonValue> newSpoiltReefers = new HashMap<>();
+         List<VoyageOrder> newSpoiltOrders = new ArrayList<>();
+         for (int reeferId : reefers.toArray()) {
+            if ( emptyReefers.contains(reeferId) || !spoiltReefers.add(reeferId) ) {
+               continue;
+            }
+            String spoiltReeferId = String.valueOf(reeferId);
+            newSpoiltReefers.put(spoiltReeferId, Json.createValue(spoiltReeferId));
+            VoyageOrder order = orderOf(reeferId);
+            if ( order != null && !spoiltOrders.containsKey(order.getId()) ) {
+               spoiltOrders.put(order.getId(), Json.createValue(order.getId()));
+               order.setSpoilt(true);
+               newSpoiltOrders.add(order);
+            }
+         }
+         if ( newSpoiltReefers.isEmpty() ) {
+            return;
+         }
+         Map<String, JsonValue> actorStateMap = new HashMap<>();
+         actorStateMap.put(Constants.TOTAL_SPOILT_KEY, Json.createValue(spoiltReefers.size()));
+         Map<String, Map<String, JsonValue>> subMapUpdates = new HashMap<>();
+         subMapUpdates.put(Constants.SPOILT_REEFERS_KEY, newSpoiltReefers);
+         if ( !newSpoiltOrders.isEmpty() ) {
+            subMapUpdates.put(Constants.SPOILT_ORDERS_KEY, spoiltOrders);
+         }
+         Kar.Actors.State.update(this, Collections.emptyList(), Collections.emptyMap(), actorStateMap, subMapUpdates);
+         ActorRef orderManager = Kar.Actors.ref(ReeferAppConfig.OrderManagerActorType, ReeferAppConfig.OrderManagerId);
+         for (VoyageOrder order : newSpoiltOrders) {
+            Kar.Actors.tell(orderManager, "orderSpoilt", order.toJson(getId()));
+         }
+      } catch( Exception e) {
+         logSevereError("reeferAnomalies()", e);
+      }
+   }
+
+   private JsonObject updateTotalSpoiltReefersAndOrders(VoyageOrder order, String spoiltReeferId) {
       Map<String, JsonValue> actorStateMap = new HashMap<>();
-      actorStateMap.put(Constants.TOTAL_SPOILT_KEY, Json.createValue(spoiltReefersMap.size()));
+      actorStateMap.put(Constants.TOTAL_SPOILT_KEY, Json.createValue(spoiltReefers.size()));
       Map<String, Map<String, JsonValue>> subMapUpdates = new HashMap<>();
-      subMapUpdates.put(Constants.SPOILT_REEFERS_KEY, spoiltReefersMap);
+      // only the new spoilt reefer is written, the rest of the submap is already persisted
+      subMapUpdates.put(Constants.SPOILT_REEFERS_KEY, Collections.singletonMap(spoiltReeferId, Json.createValue(spoiltReeferId)));
       subMapUpdates.put(Constants.SPOILT_ORDERS_KEY, spoiltOrders);
       Kar.Actors.State.update(this, Collections.emptyList(), Collections.emptyMap(), actorStateMap, subMapUpdates);
-      return order.getAsJsonObject();
+      return order.toJson(getId());
    }
    private void updateTotalSpoiltReefers() {
       Map<String, JsonValue> actorStateMap = new HashMap<>();
-      actorStateMap.put(Constants.TOTAL_SPOILT_KEY, Json.createValue(spoiltReefersMap.size()));
+      actorStateMap.put(Constants.TOTAL_SPOILT_KEY, Json.createValue(spoiltReefers.size()));
       Kar.Actors.State.update(this, Collections.emptyList(), Collections.emptyMap(), actorStateMap, Collections.emptyMap());
    }
    @Remote
    public Kar.Actors.TailCall processReefersBookingResult(JsonObject message) {
       if ( voyage == null || voyage.shipArrived()) {
          logger.warning("VoyageActor.processReefersBookingResult - voyageId:"+getId()+ " voyage already arrived");
-         Kar.Actors.remove(this);
+         removeState();
          return null;
       }
       try {
@@ -314,18 +372,14 @@ public class VoyageActor extends BaseActor {
    @Remote
    public Kar.Actors.TailCall saveStateAndNotify(JsonObject booking, JsonNumber reeferCount, JsonNumber freeCapacity) {
       DepotReply depotReply = new DepotReply(booking);
-      Set<String> orderReefers = depotReply.getReefers();
-      for (String rid : orderReefers) {
-         // Update in-memory map
-         reefer2OrderMap.put(rid, depotReply.getOrderId());
-      }
+      VoyageOrder order = VoyageOrder.fromBooking(booking);
       voyage.setReeferCount(reeferCount.intValue());
       voyage.setFreeCapacity(freeCapacity.intValue());
-      orders.put(depotReply.getOrderId(), booking);
+      addOrder(order);
       voyage.setOrderCount(orders.size());
       voyageStatus = Json.createValue(VoyageStatus.PENDING.name());
       // save voyage state and booking
-      save(depotReply, booking);
+      save(order);
       return new Kar.Actors.TailCall(this, "updateSchedulerAndNotifyOrder",  depotReply.getOrder());
    }
    @Remote
@@ -342,7 +396,7 @@ public class VoyageActor extends BaseActor {
    }
    private boolean handledAlreadyArrived(Order order) {
       if ( voyage == null ) {   // voyage arrived
-         Kar.Actors.remove(this);
+         removeState();
          logger.warning("VoyageActor.handledAlreadyArrived() - voyageId:" + getId() + " orderId:" + order.getId() + " - already arrived");
          order.setMsg("Voyage " + getId() + " already arrived - order: "+order.getId()+" rejected");
          order.setBookingFailed();
@@ -427,7 +481,7 @@ public class VoyageActor extends BaseActor {
          //    return new Kar.Actors.TailCall( Kar.Actors.ref(ReeferAppConfig.OrderActorType, order.getId()),"processReeferBookingResult", order.getAsJsonObject());
          // }
          return new Kar.Actors.TailCall( Kar.Actors.ref(ReeferAppConfig.DepotActorType, DepotManagerActor.Depot.makeId(voyage.getRoute().getOriginPort())),
-                                         "bookReefers", message);
+                                         "queueBooking", message);
       } catch (Exception e) {
          logSevereError("reserve()", e);
          order.setMsg("Voyage "+getId()+" order booking: "+order.getId()+" failed - reason: "+e.getMessage());
@@ -435,33 +489,33 @@ public class VoyageActor extends BaseActor {
         return new Kar.Actors.TailCall( Kar.Actors.ref(ReeferAppConfig.OrderActorType, order.getId()),"processReeferBookingResult", order.getAsJsonObject());
       }
    }
-   private void save(DepotReply booking, JsonValue bookingStatus) {
+   private void save(VoyageOrder order) {
       try {
          Map<String, JsonValue> actorStateMap = new HashMap<>();
          actorStateMap.put(Constants.VOYAGE_STATUS_KEY, voyageStatus);
          actorStateMap.put(Constants.VOYAGE_INFO_KEY, VoyageJsonSerializer.serialize(voyage));
          Map<String, Map<String, JsonValue>> subMapUpdates = new HashMap<>();
          Map<String, JsonValue> orderSubMapUpdates = new HashMap<>();
-         orderSubMapUpdates.put(booking.getOrderId(), bookingStatus);
+         orderSubMapUpdates.put(order.getId(), Json.createValue(order.encode()));
          subMapUpdates.put(Constants.VOYAGE_ORDERS_KEY, orderSubMapUpdates);
          Kar.Actors.State.update(this, Collections.emptyList(), Collections.emptyMap(), actorStateMap, subMapUpdates);
       } catch( Exception e) {
-         logger.severe("VoyageActor.save() - Error - bookingStatus: "+bookingStatus+" booking:"+booking);
+         logger.severe("VoyageActor.save() - Error - order:"+order.getId());
          logSevereError("save", e);
       }
    }
-   private void updateState(DepotReply booking) {
+   private void updateState(String orderId) {
       try {
          Map<String, JsonValue> actorStateMap = new HashMap<>();
          actorStateMap.put(Constants.VOYAGE_STATUS_KEY, voyageStatus);
          actorStateMap.put(Constants.VOYAGE_INFO_KEY, VoyageJsonSerializer.serialize(voyage));
          Map<String, List<String> > subMapUpdates = new HashMap<>();
          List<String> orders2Remove = new ArrayList<>();
-         orders2Remove.add(booking.getOrderId());
+         orders2Remove.add(orderId);
          subMapUpdates.put(Constants.VOYAGE_ORDERS_KEY, orders2Remove);
          Kar.Actors.State.update(this, Collections.emptyList(), subMapUpdates, actorStateMap, Collections.emptyMap());
       } catch( Exception e) {
-         logger.severe("VoyageActor.save() - Error - booking: "+booking);
+         logger.severe("VoyageActor.save() - Error - order: "+orderId);
          logSevereError("save", e);
       }
    }
@@ -476,17 +530,17 @@ public class VoyageActor extends BaseActor {
    public void replaceReefer(JsonObject message) {
       if ( voyage == null || voyage.shipArrived() ) {
          logger.warning("VoyageActor.replaceReefer - voyageId:"+getId()+ " voyage already arrived");
-         Kar.Actors.remove(this);
+         removeState();
          return;
       }
       try {
          String spoiltReeferId = String.valueOf(message.getInt(Constants.REEFER_ID_KEY));
          // ignore anomaly if target is an empty reefer
-         if ( emptyReefersMap.containsKey(spoiltReeferId)) {
+         if ( emptyReefers.contains(Integer.parseInt(spoiltReeferId))) {
             return;
          }
          if (VoyageStatus.DEPARTED.equals(getVoyageStatus())) {
-            boolean reeferExists = reefer2OrderMap.containsKey(spoiltReeferId);
+            boolean reeferExists = orderOf(Integer.parseInt(spoiltReeferId)) != null;
             logger.info("VoyageActor.replaceReefer() - voyageId:"+getId()+" - too late to replace reefer "+
                     spoiltReeferId+", voyage already departed - processing as reefer anomaly - reefer exists:"+reeferExists);
             reeferAnomaly(message);
@@ -502,34 +556,18 @@ public class VoyageActor extends BaseActor {
          }
          int newReeferId = reply.asJsonObject().getInt(Constants.REEFER_REPLACEMENT_ID_KEY);
 
-         String orderId = reefer2OrderMap.get(spoiltReeferId);
-         if (orders.containsKey(orderId)) {
-            JsonValue order = orders.get(orderId);
-            reefer2OrderMap.remove(spoiltReeferId);
-            reefer2OrderMap.put(String.valueOf(newReeferId), orderId);
-            String reefers[] = order.asJsonObject().getString(Constants.ORDER_REEFERS_KEY).split(",");
-            Set<String> reeferIds = new LinkedHashSet<>();
-
-            for( String reeferId : reefers) {
-               if (reeferId.equals(spoiltReeferId)) {
-                  // replace spoilt reefer
-                  reeferIds.add(String.valueOf(newReeferId));
-               } else {
-                  reeferIds.add(reeferId);
-               }
-            }
-
-            JsonObject updatedBooking = Json.createObjectBuilder().add(Constants.STATUS_KEY, Constants.OK).
-                    add(Constants.DEPOT_KEY,  DepotManagerActor.Depot.makeId(voyage.getRoute().getOriginPort())).
-                    add(Constants.REEFERS_KEY, Json.createValue(reeferIds.size())).
-                    add(Constants.ORDER_REEFERS_KEY, Json.createValue(String.join(",", reeferIds))).
-                    add(JsonOrder.OrderKey, order.asJsonObject().getJsonObject(Constants.ORDER_KEY)).build();
-            orders.put(orderId, updatedBooking);
+         VoyageOrder order = orderOf(Integer.parseInt(spoiltReeferId));
+         if (order != null) {
+            // replace spoilt reefer
+            order.getReefers().remove(Integer.parseInt(spoiltReeferId));
+            order.getReefers().add(newReeferId);
+            reeferOrders.remove(Integer.parseInt(spoiltReeferId));
+            reeferOrders.put(newReeferId, order);
 
             logger.log(Level.INFO,"VoyageActor.replaceReefer() - voyageId:"+getId()+" replaced: " +spoiltReeferId+ " with: "+newReeferId);
             Map<String, Map<String, JsonValue>> subMapUpdates = new HashMap<>();
             Map<String, JsonValue> orderSubMapUpdates = new HashMap<>();
-            orderSubMapUpdates.put(orderId, updatedBooking);
+            orderSubMapUpdates.put(order.getId(), Json.createValue(order.encode()));
             subMapUpdates.put(Constants.VOYAGE_ORDERS_KEY, orderSubMapUpdates);
 
             Kar.Actors.State.update(this, Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(), subMapUpdates);
@@ -548,58 +586,40 @@ public class VoyageActor extends BaseActor {
 
       try {
          JsonArrayBuilder voyageOrderIdsBuilder = Json.createArrayBuilder();
-         StringBuilder reeferIds = new StringBuilder();
+         ReeferIdSet reeferIds = new ReeferIdSet();
          // notify each order actor that the ship arrived
 
-         orders.keySet().forEach(orderId -> {
-            voyageOrderIdsBuilder.add(orderId);
-            JsonValue order = orders.get(orderId);
-            String orderReeferIds = order.asJsonObject().getString(Constants.ORDER_REEFERS_KEY);
-            if (orderReeferIds == null) {
-               logger.log(Level.WARNING, String.format("VoyageActor.processArrivedVoyage - voyageId: %s  REEFERS MISSING FROM ORDER: %s booking status: %s",getId(), orderId ,order));
-            } else if (orderReeferIds.trim().length() == 0) {
-               logger.log(Level.WARNING, String.format("VoyageActor.processArrivedVoyage - voyageId: %s  REEFERS NOT BOOKED TO ORDER: %s booking status: %s",getId(), orderId ,order));
-            } else {
-               String[] reefers = orderReeferIds.split(",");
-               reeferIds.append(orderReeferIds).append(",");
+         orders.values().forEach(order -> {
+            voyageOrderIdsBuilder.add(order.getId());
+            if (order.getReefers().isEmpty()) {
+               logger.log(Level.WARNING, String.format("VoyageActor.processArrivedVoyage - voyageId: %s  REEFERS NOT BOOKED TO ORDER: %s",getId(), order.getId()));
+            } else if (departedReefers.isEmpty()) {
+               // voyage departed before its reefers were saved on departure
+               reeferIds.addAll(order.getReefers());
             }
          });
+         reeferIds.addAll(departedReefers);
 
-         StringBuilder spoiltReeferIds = new StringBuilder();
-         spoiltReefersMap.keySet().forEach(spoiltReefer -> {
-            spoiltReeferIds.append(spoiltReefer).append(",");
-         });
          JsonArray voyageOrderIds = voyageOrderIdsBuilder.build();
 
          if (!voyageOrderIds.isEmpty()) {
             JsonObjectBuilder job = Json.createObjectBuilder();
             job.add(Constants.VOYAGE_ID_KEY, getId()).
                     add(Constants.VOYAGE_ARRIVAL_DATE_KEY, voyage.getArrivalDate()).
-                    add(Constants.REEFERS_KEY, reeferIds.toString()).
-                    add(Constants.SPOILT_REEFERS_KEY, spoiltReeferIds.toString());
+                    add(Constants.REEFERS_KEY, reeferIds.encode()).
+                    add(Constants.SPOILT_REEFERS_KEY, spoiltReefers.encode());
 
-	         if ( !emptyReefersMap.isEmpty() ) {
-               StringBuilder sb = new StringBuilder();
-               for( String reeferId:  emptyReefersMap.keySet() ) {
-                  sb.append(reeferId).append(",");
-               }
-	            job.add(Constants.VOYAGE_EMPTY_REEFERS_KEY, sb.toString());
+	         if ( !emptyReefers.isEmpty() ) {
+	            job.add(Constants.VOYAGE_EMPTY_REEFERS_KEY, emptyReefers.encode());
 	         }
-            int reeferCount = reeferIds.toString().split(",").length;
-            logger.info("VoyageActor.processArrivedVoyage - voyageId:"+getId()+" ARRIVED with "+orders.size()+" orders - reefers:"+reeferCount+" emptiesCount:"+emptyReefersMap.size());
+            logger.info("VoyageActor.processArrivedVoyage - voyageId:"+getId()+" ARRIVED with "+orders.size()+" orders - reefers:"+reeferIds.size()+" emptiesCount:"+emptyReefers.size());
             Actors.Builder.instance().target(ReeferAppConfig.DepotActorType, DepotManagerActor.Depot.makeId(voyage.getRoute().getDestinationPort())).
                     method("voyageReefersArrived").arg(job.build()).tell();
          }
          Actors.Builder.instance().target(ReeferAppConfig.ScheduleManagerActorType, ReeferAppConfig.ScheduleManagerId).
                  method("voyageArrived").arg(VoyageJsonSerializer.serialize(voyage)).tell();
-          Actors.Builder.instance().target(ReeferAppConfig.OrderManagerActorType, ReeferAppConfig.OrderManagerId).
-                 method("ordersArrived").arg(voyageOrderIds).tell();
-         orders.keySet().forEach(orderId -> {
-            JsonValue value = orders.get(orderId);
-            JsonObject booking = value.asJsonObject();
-            Order order = new Order(booking.asJsonObject().getJsonObject(Constants.ORDER_KEY));
-            notifyVoyageOrder(orderId, Order.OrderStatus.DELIVERED, "delivered");
-         });
+         // a single message transitions all voyage orders, order actors are not notified
+         transitionVoyageOrders(voyageOrderIds, Order.OrderStatus.DELIVERED);
 
       } catch (Exception e) {
          logSevereError("processArrivedVoyage()", e);
@@ -609,26 +629,17 @@ public class VoyageActor extends BaseActor {
    public void addEmptyReefers(JsonObject message) {
       if ( voyage == null || voyage.shipArrived()  ) {
          logger.warning("VoyageActor.addEmptyReefers - voyageId:"+getId()+ " voyage already arrived");
-         Kar.Actors.remove(this);
+         removeState();
          return;
       }
       try {
          // the depot may return a number of empty reefers to sail on the voyage due to
          // excess reefer inventory
-         String emptiesRids = message.getString(Constants.VOYAGE_EMPTY_REEFERS_KEY);
-         if (emptiesRids.trim().length()==0 ) {
-            emptiesRids ="";
-         }
-         JsonValue empties = Json.createValue(emptiesRids);
-         for( String emptyReeferId : emptiesRids.split(",") ) {
-            if	( emptyReeferId.trim().length() > 0 ) {
-               emptyReefersMap.put(emptyReeferId, emptyReeferId);
-            }
-         }
-         voyage.updateFreeCapacity(emptyReefersMap.size());
-         voyage.setReeferCount(voyage.getReeferCount()+emptyReefersMap.size());
+         emptyReefers.addAll(ReeferIdSet.decode(message.getString(Constants.VOYAGE_EMPTY_REEFERS_KEY)));
+         voyage.updateFreeCapacity(emptyReefers.size());
+         voyage.setReeferCount(voyage.getReeferCount()+emptyReefers.size());
          JsonObjectBuilder jb = Json.createObjectBuilder();
-         jb.add(Constants.VOYAGE_EMPTY_REEFERS_KEY, empties);
+         jb.add(Constants.VOYAGE_EMPTY_REEFERS_KEY, emptyReefers.encode());
          jb.add(Constants.VOYAGE_INFO_KEY, VoyageJsonSerializer.serialize(voyage));
          Kar.Actors.State.set(this, jb.build());
       } catch( Exception e) {
@@ -637,7 +648,11 @@ public class VoyageActor extends BaseActor {
       }
    }
    /**
-    * Calls REST and Order actors when a ship departs from the origin port
+    * Calls REST and Order actors when a ship departs from the origin port. The
+    * notifications go out first and are idempotent at the receivers. The voyage
+    * status, voyage info, order statuses and departed reefers are then committed
+    * in a single state update. If the actor fails before the update the departure
+    * is replayed in full on retry, after the update it is not replayed at all.
     *
     * @param voyage - Voyage info
     */
@@ -654,69 +669,153 @@ public class VoyageActor extends BaseActor {
                  voyage.getReeferCount()); //+" empties count:"+emptiesCount+" depot reply:"+reply);
          Actors.Builder.instance().target(ReeferAppConfig.ScheduleManagerActorType, ReeferAppConfig.ScheduleManagerId).
                  method("voyageDeparted").arg(VoyageJsonSerializer.serialize(voyage)).tell();
-         Set<String> voyageOrderIds = orders.keySet().stream().collect(Collectors.toSet());
-         JsonObject msg = Json.createObjectBuilder().add(Constants.VOYAGE_ID_KEY, getId()).
-                 add(Constants.ORDERS_KEY, Json.createArrayBuilder(voyageOrderIds)).
-                 build();
-         Actors.Builder.instance().target(ReeferAppConfig.OrderManagerActorType, ReeferAppConfig.OrderManagerId).
-                 method("ordersDeparted").arg(msg).tell();
+         // a single message transitions all voyage orders, order actors are not notified
+         transitionVoyageOrders(Json.createArrayBuilder(orders.keySet()).build(), Order.OrderStatus.INTRANSIT);
 
-         Map<String, Map<String, JsonValue>> subMapUpdates = new HashMap<>();
          Map<String, JsonValue> orderSubMapUpdates = new HashMap<>();
-
-         orders.keySet().forEach(orderId -> {
-            JsonValue value = orders.get(orderId);
-            JsonObject booking = value.asJsonObject();
-            Order order = new Order(booking.asJsonObject().getJsonObject(Constants.ORDER_KEY));
-            if (!Order.OrderStatus.INTRANSIT.name().equals(order.getStatus())) {
-               notifyVoyageOrder(orderId, Order.OrderStatus.INTRANSIT, "departed");
-               order.setStatus(Order.OrderStatus.INTRANSIT.name());
-               JsonObjectBuilder job = Json.createObjectBuilder();
-               job.add(Constants.STATUS_KEY, booking.asJsonObject().getString(Constants.STATUS_KEY)).
-                       add(Constants.REEFERS_KEY, booking.asJsonObject().getJsonNumber(Constants.REEFERS_KEY).intValue()).
-                       add(Constants.ORDER_KEY, order.getAsJsonObject());
-               try {
-                  if (!booking.asJsonObject().containsKey(Constants.ORDER_REEFERS_KEY)) {
-                     logger.log(Level.WARNING, String.format("VoyageActor.notifyVoyageOrder - voyageId: %s method name: %s - booking has no reefers:%s", getId(), "departed", booking));
-                  } else if (booking.asJsonObject().getString(Constants.ORDER_REEFERS_KEY) != null) {
-                     job.add(Constants.ORDER_REEFERS_KEY, booking.asJsonObject().get(Constants.ORDER_REEFERS_KEY));
-                  } else {
-                     logger.log(Level.WARNING, String.format("VoyageActor.notifyVoyageOrder - voyageId: %s method name: %s - invalid booking :%s", getId(), "departed", booking));
-                  }
-               } catch (Exception e) {
-                  logger.log(Level.WARNING, String.format("VoyageActor.notifyVoyageOrder - voyageId: %s order: %s booking:%s", getId(), orderId, booking), e);
-                  throw e;
+         departedReefers = new ReeferIdSet();
+         orders.values().forEach(order -> {
+            if (order.getStatus() != Order.OrderStatus.INTRANSIT) {
+               order.setStatus(Order.OrderStatus.INTRANSIT);
+               if (order.getReefers().isEmpty()) {
+                  logger.log(Level.WARNING, String.format("VoyageActor.processDepartingVoyage - voyageId: %s - order has no reefers:%s", getId(), order.getId()));
                }
-               JsonObject jo = job.build();
-               orders.put(order.getId(), jo);
-               orderSubMapUpdates.put(order.getId(), jo);
+               orderSubMapUpdates.put(order.getId(), Json.createValue(order.encode()));
             }
+            departedReefers.addAll(order.getReefers());
          });
-         if ( !subMapUpdates.isEmpty() ) {
+         JsonValue departedStatus = Json.createValue(VoyageStatus.DEPARTED.name());
+         Map<String, JsonValue> actorStateMap = new HashMap<>();
+         actorStateMap.put(Constants.VOYAGE_STATUS_KEY, departedStatus);
+         actorStateMap.put(Constants.VOYAGE_INFO_KEY, VoyageJsonSerializer.serialize(voyage));
+         actorStateMap.put(Constants.DEPARTED_REEFERS_KEY, Json.createValue(departedReefers.encode()));
+         Map<String, Map<String, JsonValue>> subMapUpdates = new HashMap<>();
+         if ( !orderSubMapUpdates.isEmpty() ) {
             subMapUpdates.put(Constants.VOYAGE_ORDERS_KEY, orderSubMapUpdates);
-            Kar.Actors.State.update(this, Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(), subMapUpdates);
          }
+         Kar.Actors.State.update(this, Collections.emptyList(), Collections.emptyMap(), actorStateMap, subMapUpdates);
+         // switch in-memory status only once the departure is committed
+         voyageStatus = departedStatus;
       } catch (Exception e) {
          logSevereError("processDepartedVoyage()", e);
          throw e;
       }
    }
 
-   private void notifyVoyageOrder(String orderId, Order.OrderStatus orderStatus, String methodName) {
-         try {
-            Actors.Builder.instance().target(ReeferAppConfig.OrderActorType, orderId).
-                    method(methodName).arg().tell();
-         } catch (Exception orderActorException) {
-            // KAR sometimes fails to locate order actor instance even though it exists in REDIS. This can happen
-            // after process restart
-            if (orderActorException.getMessage().startsWith("Actor instance not found:")) {
-               // ignore the error for now, eventually KAR will not throw this error
-               logger.log(Level.WARNING, "VoyageActor.notifyVoyageOrder() - voyageId:"+getId()+" KAR failed to locate order actor instance " + orderId);
-            } else {
-               logger.log(Level.SEVERE,"VoyageActor.notifyVoyageOrder  - voyageId:"+getId() + " Error:", orderActorException);
-            }
-            throw orderActorException;
+   /**
+    * Returns the archived summary of an arrived voyage. This is the only place
+    * the summary is read back from Kar storage.
+    *
+    * @return - voyage summary
+    */
+   @Remote
+   public JsonObject voyageHistory() {
+      if ( archived ) {
+         JsonValue summary = Kar.Actors.State.get(this, Constants.VOYAGE_ARCHIVE_KEY);
+         if ( summary != null && summary != JsonValue.NULL ) {
+            return Json.createObjectBuilder().add(Constants.STATUS_KEY, Constants.OK).
+                    add(Constants.VOYAGE_ARCHIVE_KEY, summary).build();
          }
+      } else if ( voyage != null ) {
+         return Json.createObjectBuilder().add(Constants.STATUS_KEY, Constants.OK).
+                 add(Constants.VOYAGE_ARCHIVE_KEY, summary()).build();
+      }
+      return Json.createObjectBuilder().add(Constants.STATUS_KEY, "FAILED").
+              add("ERROR", "VoyageActor.voyageHistory() - voyage " + getId() + " has no history").
+              add(Constants.VOYAGE_ID_KEY, getId()).build();
+   }
+
+   /**
+    * Replaces the state of an arrived voyage with a small summary and releases
+    * orders and spoilt reefers held in memory. Once archived the actor activates
+    * without loading anything.
+    */
+   private void archive() {
+      Map<String, JsonValue> actorStateMap = new HashMap<>();
+      actorStateMap.put(Constants.VOYAGE_STATUS_KEY, Json.createValue(VoyageStatus.ARRIVED.name()));
+      actorStateMap.put(Constants.VOYAGE_ARCHIVE_KEY, summary());
+      // everything but the status and summary is removed in the same update
+      Map<String, List<String>> subMapRemovals = new HashMap<>();
+      subMapRemovals.put(Constants.VOYAGE_ORDERS_KEY, new ArrayList<>(orders.keySet()));
+      List<String> spoiltReeferIds = new ArrayList<>(spoiltReefers.size());
+      spoiltReefers.forEach(reeferId -> spoiltReeferIds.add(String.valueOf(reeferId)));
+      subMapRemovals.put(Constants.SPOILT_REEFERS_KEY, spoiltReeferIds);
+      subMapRemovals.put(Constants.SPOILT_ORDERS_KEY, new ArrayList<>(spoiltOrders.keySet()));
+      Kar.Actors.State.update(this, Arrays.asList(Constants.VOYAGE_INFO_KEY, Constants.TOTAL_SPOILT_KEY,
+              Constants.VOYAGE_EMPTY_REEFERS_KEY, Constants.DEPARTED_REEFERS_KEY), subMapRemovals, actorStateMap, Collections.emptyMap());
+      archived = true;
+      orders = new HashMap<>();
+      reeferOrders = new HashMap<>();
+      spoiltOrders = new HashMap<>();
+      spoiltReefers = new ReeferIdSet();
+      emptyReefers = new ReeferIdSet();
+      departedReefers = new ReeferIdSet();
+      voyageInfo = null;
+      voyage = null;
+   }
+
+   private JsonObject summary() {
+      return Json.createObjectBuilder().add(Constants.VOYAGE_ID_KEY, getId()).
+              add(Constants.VOYAGE_INFO_KEY, VoyageJsonSerializer.serialize(voyage)).
+              add(Constants.SPOILT_REEFERS_KEY, spoiltReefers.encode()).
+              add(Constants.SPOILT_ORDERS_KEY, Json.createArrayBuilder(spoiltOrders.keySet())).
+              add(Constants.VOYAGE_EMPTY_REEFERS_KEY, emptyReefers.encode()).
+              build();
+   }
+
+   private void removeState() {
+      // the archived summary is kept until the voyage expires
+      if ( !archived ) {
+         Kar.Actors.remove(this);
+      }
+   }
+
+   /**
+    * Called once the voyage is expired from the schedule, ScheduleService.ARRIVED_THRESHOLD_IN_DAYS
+    * or more after arrival. Removes the archived summary.
+    */
+   @Remote
+   public void expire() {
+      Kar.Actors.remove(this);
+   }
+
+   private void transitionVoyageOrders(JsonArray orderIds, Order.OrderStatus orderStatus) {
+      JsonObject msg = Json.createObjectBuilder().add(Constants.VOYAGE_ID_KEY, getId()).
+              add(Constants.ORDERS_KEY, orderIds).
+              add(Constants.ORDER_STATUS_KEY, orderStatus.name()).
+              build();
+      Actors.Builder.instance().target(ReeferAppConfig.OrderManagerActorType, ReeferAppConfig.OrderManagerId).
+              method("voyageOrdersTransition").arg(msg).tell();
+   }
+
+   /**
+    * @param reeferId - reefer id
+    * @return - order the reefer is allocated to or null if none
+    */
+   private VoyageOrder orderOf(int reeferId) {
+      return reeferOrders.get(reeferId);
+   }
+
+   private void addOrder(VoyageOrder order) {
+      VoyageOrder previous = orders.put(order.getId(), order);
+      if (previous != null) {
+         previous.getReefers().forEach(reeferId -> reeferOrders.remove(reeferId, previous));
+      }
+      order.getReefers().forEach(reeferId -> reeferOrders.put(reeferId, order));
+   }
+
+   private void removeOrder(VoyageOrder order) {
+      if (orders.remove(order.getId(), order)) {
+         order.getReefers().forEach(reeferId -> reeferOrders.remove(reeferId, order));
+      }
+   }
+
+   private VoyageOrder decodeOrder(JsonValue order) {
+      // orders saved before the binary encoding are stored as Json booking objects
+      if (order.getValueType() == JsonValue.ValueType.OBJECT) {
+         return VoyageOrder.fromBooking(order.asJsonObject());
+      }
+      return VoyageOrder.decode(((JsonString) order).getString());
    }
 
    /**
@@ -795,15 +894,5 @@ public class VoyageActor extends BaseActor {
 
          throw new IllegalStateException("VoyageActor.getDepot() - Missing Order Object");
       }
-      protected Set<String> getReefers() {
-         Set<String> orderReefers = new HashSet<>();
-         if ( jv.asJsonObject() != null && jv.asJsonObject().containsKey(Constants.ORDER_REEFERS_KEY)) {
-            String[] reefers = jv.asJsonObject().getString(Constants.ORDER_REEFERS_KEY).split(",");
-            for( String rid : reefers ) {
-               orderReefers.add(rid);
-            }
-         }
-         return orderReefers;
-      }
    }
 }
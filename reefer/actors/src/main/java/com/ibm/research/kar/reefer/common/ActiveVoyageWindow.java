@@ -0,0 +1,173 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import com.ibm.research.kar.reefer.common.time.EpochDay;
+import com.ibm.research.kar.reefer.model.Voyage;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Voyages whose ships are currently active, which means voyages that departed and
+ * have not arrived yet or have arrived and are still at the destination port. The
+ * window is moved forward one day at a time. On each day change voyages departing
+ * that day are taken from the schedule sail date index and voyages past their last
+ * day at port leave, so the cost of a day change depends on the number of voyages
+ * departing and leaving rather than on the schedule length.
+ * <p>
+ * A voyage past its last day at port whose arrival was not reported yet stays
+ * active until the arrival is reported. Voyages entering the window and voyages
+ * whose position changed are collected until drained so that only those need to
+ * be persisted.
+ */
+public class ActiveVoyageWindow {
+    // active voyages in sail date order
+    private final Map<String, Voyage> active = new LinkedHashMap<>();
+    // active voyages keyed by epoch day of their last day at port
+    private final NavigableMap<Integer, List<Voyage>> arrivals = new TreeMap<>();
+    // voyages past their last day at port still waiting for the arrival
+    private final List<Voyage> overdue = new ArrayList<>();
+    private final Map<String, Voyage> changed = new HashMap<>();
+    private final Set<String> left = new HashSet<>();
+    // epoch day the window was last moved to
+    private int day = EpochDay.NONE;
+
+    /**
+     * @return - true once the window has been positioned on a day
+     */
+    public boolean isPositioned() {
+        return day != EpochDay.NONE;
+    }
+
+    /**
+     * Positions the window on a given day.
+     *
+     * @param currentDate - today
+     * @param activeVoyages - voyages active today in sail date order
+     */
+    public void reset(Instant currentDate, List<Voyage> activeVoyages) {
+        active.clear();
+        arrivals.clear();
+        overdue.clear();
+        activeVoyages.forEach(this::enter);
+        day = EpochDay.of(currentDate);
+        leave();
+    }
+
+    /**
+     * Registers voyages saved as active before a restart. Those which are not active
+     * once the window is positioned are returned by drainLeft().
+     *
+     * @param voyageIds - ids of previously saved active voyages
+     */
+    public void restored(Collection<String> voyageIds) {
+        for (String voyageId : voyageIds) {
+            if (!active.containsKey(voyageId)) {
+                left.add(voyageId);
+            }
+        }
+    }
+
+    /**
+     * Moves the window forward to a given day.
+     *
+     * @param currentDate - today
+     * @param index - schedule index providing voyages departing since the last move
+     */
+    public void advance(Instant currentDate, ScheduleIndex index) {
+        int today = EpochDay.of(currentDate);
+        if (today <= day) {
+            return;
+        }
+        index.departing(day + 1, today).forEach(this::enter);
+        day = today;
+        leave();
+    }
+
+    /**
+     * @return - active voyages in sail date order
+     */
+    public List<Voyage> getVoyages() {
+        // drop overdue voyages whose arrival was reported since the last call
+        if (!overdue.isEmpty()) {
+            for (Voyage voyage : new ArrayList<>(overdue)) {
+                if (voyage.shipArrived()) {
+                    remove(voyage);
+                }
+            }
+        }
+        return new ArrayList<>(active.values());
+    }
+
+    /**
+     * Marks an active voyage changed so that it is returned by the next drainChanged()
+     *
+     * @param voyage - voyage
+     */
+    public void changed(Voyage voyage) {
+        if (active.get(voyage.getId()) == voyage) {
+            changed.put(voyage.getId(), voyage);
+        }
+    }
+
+    public void remove(Voyage voyage) {
+        if (active.remove(voyage.getId(), voyage)) {
+            overdue.remove(voyage);
+            changed.remove(voyage.getId());
+            left.add(voyage.getId());
+        }
+    }
+
+    /**
+     * @return - voyages which entered the window or changed since the last call
+     */
+    public Collection<Voyage> drainChanged() {
+        List<Voyage> voyages = new ArrayList<>(changed.values());
+        changed.clear();
+        return voyages;
+    }
+
+    /**
+     * @return - ids of voyages which left the window since the last call
+     */
+    public Collection<String> drainLeft() {
+        List<String> ids = new ArrayList<>(left);
+        left.clear();
+        return ids;
+    }
+
+    private void enter(Voyage voyage) {
+        active.put(voyage.getId(), voyage);
+        left.remove(voyage.getId());
+        changed.put(voyage.getId(), voyage);
+        int lastDayAtPort = voyage.arrivalDay() + voyage.getRoute().getDaysAtPort();
+        arrivals.computeIfAbsent(lastDayAtPort, d -> new ArrayList<>(2)).add(voyage);
+    }
+
+    private void leave() {
+        while (!arrivals.isEmpty() && arrivals.firstKey() < day) {
+            for (Voyage voyage : arrivals.pollFirstEntry().getValue()) {
+                if (voyage.shipArrived()) {
+                    remove(voyage);
+                } else if (active.get(voyage.getId()) == voyage) {
+                    overdue.add(voyage);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import com.ibm.research.kar.Kar;
+import com.ibm.research.kar.actor.ActorInstance;
+import com.ibm.research.kar.actor.ActorRef;
+import com.ibm.research.kar.reefer.ReeferAppConfig;
+import com.ibm.research.kar.reefer.actors.Actors;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Routes reefer anomalies and location changes to AnomalyManager shards. When
+ * ReeferAppConfig.AnomalyManagerShardCount is greater than 1 the reefer id space
+ * is split into contiguous ranges, each owned by an independent anomaly-manager
+ * actor instance. Range boundaries are aligned with depot Shard boundaries and
+ * are computed by the DepotManager which saves the lower bound of each range in
+ * its state together with the shard count. Routers fetch the bounds from the
+ * DepotManager when an actor using them is activated, processes without actors
+ * like the simulator fetch them with a root call. When the DepotManager partitions
+ * reefers again it sends the new bounds to the depots which update their router.
+ */
+public final class AnomalyManagerRouter {
+    private static final Logger logger = ReeferLoggerFormatter.getFormattedLogger(AnomalyManagerRouter.class.getName());
+    private static volatile Partition partition;
+
+    private AnomalyManagerRouter() {
+    }
+
+    public static boolean isSharded() {
+        return ReeferAppConfig.AnomalyManagerShardCount > 1;
+    }
+
+    /**
+     * @param shard - anomaly manager shard index
+     * @return - id of the anomaly-manager actor owning a given shard
+     */
+    public static String anomalyManagerId(int shard) {
+        return isSharded() ? ReeferAppConfig.AnomalyManagerId + "-" + shard : ReeferAppConfig.AnomalyManagerId;
+    }
+
+    /**
+     * @param reeferId - reefer id
+     * @return - anomaly-manager actor tracking a given reefer
+     */
+    public static ActorRef anomalyManager(int reeferId) {
+        return Kar.Actors.ref(ReeferAppConfig.AnomalyManagerActorType, anomalyManagerId(shardOf(reeferId)));
+    }
+
+    /**
+     * @return - all anomaly-manager actors, ordered by shard index
+     */
+    public static List<ActorRef> anomalyManagers() {
+        int count = isSharded() ? bounds().length : 1;
+        List<ActorRef> managers = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            managers.add(Kar.Actors.ref(ReeferAppConfig.AnomalyManagerActorType, anomalyManagerId(shard)));
+        }
+        return managers;
+    }
+
+    /**
+     * Splits given reefers by the anomaly manager shard which tracks them.
+     *
+     * @param reefers - reefer ids
+     * @return - reefer subsets keyed by shard index. Shards without reefers are omitted.
+     */
+    public static Map<Integer, ReeferIdSet> split(ReeferIdSet reefers) {
+        if (!isSharded()) {
+            return Collections.singletonMap(0, reefers);
+        }
+        Map<Integer, ReeferIdSet> split = new TreeMap<>();
+        reefers.forEach(reeferId -> split.computeIfAbsent(shardOf(reeferId), shard -> new ReeferIdSet()).add(reeferId));
+        return split;
+    }
+
+    /**
+     * Sends a batch of reefer anomalies to the anomaly manager shards tracking the
+     * reefers, one reeferAnomalies message per shard.
+     *
+     * @param reefers - anomalous reefers
+     * @param properties - additional message properties like Constants.DATE_KEY
+     */
+    public static void tellAnomalies(ReeferIdSet reefers, JsonObject properties) {
+        for (Map.Entry<Integer, ReeferIdSet> entry : split(reefers).entrySet()) {
+            JsonObject message = Json.createObjectBuilder(properties).
+                    add(Constants.REEFERS_KEY, entry.getValue().encode()).build();
+            Kar.Actors.tell(Kar.Actors.ref(ReeferAppConfig.AnomalyManagerActorType, anomalyManagerId(entry.getKey())),
+                    "reeferAnomalies", message);
+        }
+    }
+
+    public static int shardOf(int reeferId) {
+        if (!isSharded()) {
+            return 0;
+        }
+        int[] bounds = bounds();
+        int shard = Arrays.binarySearch(bounds, reeferId);
+        return shard >= 0 ? shard : Math.max(0, -shard - 2);
+    }
+
+    /**
+     * Groups depot shards into at most <code>count</code> contiguous reefer id ranges
+     * of roughly equal size. A depot shard is never split between two ranges.
+     *
+     * @param shards - depot shards covering the whole reefer id space
+     * @param count - requested number of ranges
+     * @return - lower bound of each range, in ascending order
+     */
+    public static int[] partition(List<Shard> shards, int count) {
+        List<Shard> sorted = new ArrayList<>(shards);
+        sorted.sort(Comparator.comparingLong(Shard::getLowerBound));
+        long total = 0;
+        for (Shard shard : sorted) {
+            total += shard.getUpperBound() - shard.getLowerBound() + 1;
+        }
+        List<Integer> bounds = new ArrayList<>(count);
+        long assigned = 0;
+        for (Shard shard : sorted) {
+            // open the next range once the current one reached its share of reefers
+            if (bounds.isEmpty() || (bounds.size() < count && assigned >= total * bounds.size() / count)) {
+                bounds.add((int) shard.getLowerBound());
+            }
+            assigned += shard.getUpperBound() - shard.getLowerBound() + 1;
+        }
+        if (bounds.isEmpty()) {
+            bounds.add(0);
+        }
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static JsonArray serialize(int[] bounds) {
+        JsonArrayBuilder jab = Json.createArrayBuilder();
+        for (int bound : bounds) {
+            jab.add(bound);
+        }
+        return jab.build();
+    }
+
+    /**
+     * Fetches anomaly manager shard bounds from the DepotManager unless already loaded
+     * for the configured shard count. The call activates the DepotManager which
+     * partitions the reefers if it has not done so yet. Actors routing to anomaly
+     * managers call this on activation.
+     *
+     * @param caller - actor making the call
+     */
+    public static void load(ActorInstance caller) {
+        if (!isSharded() || current() != null) {
+            return;
+        }
+        update(Actors.Builder.instance().target(ReeferAppConfig.DepotManagerActorType, ReeferAppConfig.DepotManagerId).
+                method("anomalyManagerShards").arg().call(caller).asJsonObject());
+    }
+
+    /**
+     * Fetches anomaly manager shard bounds from the DepotManager with a root call. Used
+     * outside of actors, always fetches the bounds so that a repartition is picked up.
+     */
+    public static void load() {
+        if (!isSharded()) {
+            return;
+        }
+        update(Actors.Builder.instance().target(ReeferAppConfig.DepotManagerActorType, ReeferAppConfig.DepotManagerId).
+                method("anomalyManagerShards").arg().rootCall().asJsonObject());
+    }
+
+    /**
+     * Replaces cached shard bounds
+     *
+     * @param shards - shard count and bounds as returned by DepotManager anomalyManagerShards()
+     */
+    public static void update(JsonObject shards) {
+        int shardCount = shards.getInt(Constants.ANOMALY_MANAGER_SHARD_COUNT_KEY);
+        if (shardCount != ReeferAppConfig.AnomalyManagerShardCount) {
+            throw new IllegalStateException("AnomalyManagerRouter.update() - DepotManager partitioned reefers for " +
+                    shardCount + " anomaly managers, expected " + ReeferAppConfig.AnomalyManagerShardCount);
+        }
+        JsonArray ja = shards.getJsonArray(Constants.ANOMALY_MANAGER_SHARDS_KEY);
+        int[] bounds = new int[ja.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = ((JsonNumber) ja.get(i)).intValue();
+        }
+        Partition current = partition;
+        if (current != null && current.shardCount == shardCount && Arrays.equals(current.lowerBounds, bounds)) {
+            return;
+        }
+        partition = new Partition(shardCount, bounds);
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("AnomalyManagerRouter.update() - anomaly manager shard bounds:" + Arrays.toString(bounds));
+        }
+    }
+
+    private static Partition current() {
+        Partition current = partition;
+        // bounds computed for a different number of shards are stale
+        return current != null && current.shardCount == ReeferAppConfig.AnomalyManagerShardCount ? current : null;
+    }
+
+    private static int[] bounds() {
+        Partition current = current();
+        if (current == null) {
+            // routing to a wrong shard would silently lose anomalies, fail the invocation instead
+            throw new IllegalStateException("AnomalyManagerRouter.bounds() - anomaly manager shards not loaded");
+        }
+        return current.lowerBounds;
+    }
+
+    private static final class Partition {
+        private final int shardCount;
+        // lower reefer id bound of each anomaly manager shard, in ascending order
+        private final int[] lowerBounds;
+
+        private Partition(int shardCount, int[] lowerBounds) {
+            this.shardCount = shardCount;
+            this.lowerBounds = lowerBounds;
+        }
+    }
+}
@@ -25,6 +25,7 @@ public class Constants {
    public static final String BOOKING_FAILED_KEY="booking-failed";
    public static final String ACTIVE_ORDERS_KEY="active-orders";
    public static final String ACTIVE_VOYAGES_KEY="active-voyages";
+   public static final String VOYAGES_WITH_ORDERS_KEY="voyages-with-orders";
    public static final String BOOKED_ORDERS_KEY="booked-orders";
    public static final String SPOILT_ORDERS_KEY="spoilt-orders";
    public static final String SPOILT_REEFER_KEY="spoilt-reefer";
@@ -33,6 +34,8 @@ public class Constants {
    public static final String VOYAGE_ARRIVAL_DATE_KEY="voyage-arrival-date";
    public static final String VOYAGE_ORDERS_KEY="voyage-orders";
    public static final String VOYAGE_REEFERS_KEY="voyage-reefers";
+   public static final String DEPARTED_REEFERS_KEY="departed-reefers";
+   public static final String VOYAGE_ARCHIVE_KEY="voyage-archive";
    public static final String VOYAGE_EMPTY_REEFERS_KEY="voyage-empty-reefers";
    public static final String VOYAGE_INFO_KEY="voyage-info";
    public static final String VOYAGE_STATUS_KEY="voyage-status";
@@ -94,6 +97,13 @@ public class Constants {
    public static final String TARGETS_KEY="targets";
    public static final String TARGET_KEY="target";
    public static final String TARGET_MAP_KEY="target-enum-map";
+   public static final String REEFER_LOCATION_JOURNAL_KEY="reefer-location-journal";
+   public static final String ANOMALY_MANAGER_SHARDS_KEY="anomaly-manager-shards";
+   public static final String ANOMALY_MANAGER_SHARD_COUNT_KEY="anomaly-manager-shard-count";
+   public static final String ANOMALY_SHARD_LOWER_BOUND_KEY="anomaly-shard-lower-bound";
+   public static final String ANOMALY_SHARD_UPPER_BOUND_KEY="anomaly-shard-upper-bound";
+   public static final String ANOMALY_EPOCH_KEY="anomaly-epoch";
+   public static final String ANOMALY_PARKED_KEY="anomaly-parked";
    public static final String TARGET_TYPE_KEY="target-type";
    public static final String ON_MAINTENANCE_PROVISIONER_LIST="on-maintenance-list";
    public static final String DATE_KEY="date";
@@ -0,0 +1,495 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import com.ibm.research.kar.reefer.common.ReeferState.State;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Depot local reefer inventory. Reefer ids which belong to the depot shards
+ * map arithmetically to dense local slots [0, denseSize). Reefers which arrive
+ * from other depots are assigned slots past the dense region through an
+ * overflow map. Slots of departed overflow reefers are recycled, so the
+ * inventory size tracks the number of reefers the depot holds and not the
+ * size of the whole fleet.
+ * <p>
+ * Reefer attributes are kept in primitive columns indexed by slot. Order and
+ * voyage ids are interned into a depot local symbol table and the maintenance
+ * release date is stored as an epoch day. Every state change goes through
+ * a single transition which keeps per state reefer counts current, so the
+ * counts are available without scanning the inventory. Reefers assigned to
+ * the same voyage are linked together so that a voyage departure touches
+ * only its own reefers.
+ */
+public class DepotInventory {
+    public static final int NO_RELEASE_DATE = Integer.MIN_VALUE;
+    private static final int EMPTY_SLOT = -1;
+    private static final State[] STATES = State.values();
+
+    private final long[] shardLowerBounds;
+    private final long[] shardUpperBounds;
+    // first local slot of each shard
+    private final int[] shardOffsets;
+    private final int denseSize;
+
+    // reefer columns indexed by slot
+    private int[] ids;
+    private int[] states;
+    private int[] orders;
+    private int[] voyages;
+    private int[] releaseDays;
+    // per voyage doubly linked lists of slots, heads indexed by voyage handle
+    private int[] nextInVoyage;
+    private int[] prevInVoyage;
+    private int[] voyageHeads = new int[16];
+    private int[] voyageSizes = new int[16];
+    private final SymbolTable symbols = new SymbolTable();
+    // number of reefers in each state
+    private final int[] stateCounts = new int[STATES.length];
+
+    // reefer id to slot mapping for reefers outside of this depot shards
+    private final Map<Integer, Integer> overflow = new HashMap<>();
+    // recycled overflow slots
+    private int[] freeOverflowSlots = new int[16];
+    private int freeOverflowCount = 0;
+    // next never used slot
+    private int highWaterMark;
+    private int size = 0;
+
+    public DepotInventory(List<Shard> shards) {
+        List<Shard> sorted = new ArrayList<>(shards);
+        sorted.sort(Comparator.comparingLong(Shard::getLowerBound));
+        shardLowerBounds = new long[sorted.size()];
+        shardUpperBounds = new long[sorted.size()];
+        shardOffsets = new int[sorted.size()];
+        int offset = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            shardLowerBounds[i] = sorted.get(i).getLowerBound();
+            shardUpperBounds[i] = sorted.get(i).getUpperBound();
+            shardOffsets[i] = offset;
+            // shard bounds are inclusive
+            offset += (int) (shardUpperBounds[i] - shardLowerBounds[i] + 1);
+        }
+        denseSize = offset;
+        highWaterMark = denseSize;
+        int length = Math.max(16, denseSize);
+        ids = new int[length];
+        states = new int[length];
+        orders = new int[length];
+        voyages = new int[length];
+        releaseDays = new int[length];
+        nextInVoyage = new int[length];
+        prevInVoyage = new int[length];
+        Arrays.fill(states, EMPTY_SLOT);
+        Arrays.fill(voyageHeads, EMPTY_SLOT);
+    }
+
+    /**
+     * Returns local slot assigned to a given reefer id.
+     *
+     * @param reeferId - reefer id
+     * @return - slot or -1 if the reefer id has no slot in this depot
+     */
+    public int slotOf(int reeferId) {
+        int slot = denseSlotOf(reeferId);
+        if (slot >= 0) {
+            return slot;
+        }
+        Integer overflowSlot = overflow.get(reeferId);
+        return overflowSlot == null ? -1 : overflowSlot;
+    }
+
+    public boolean contains(int reeferId) {
+        int slot = slotOf(reeferId);
+        return slot >= 0 && states[slot] != EMPTY_SLOT;
+    }
+
+    /**
+     * Adds or replaces a reefer in the inventory.
+     *
+     * @param reeferId - reefer id
+     * @param state - reefer state
+     * @param orderId - order the reefer is assigned to or empty string
+     * @param voyageId - voyage the reefer is assigned to or empty string
+     * @param releaseDay - maintenance release epoch day or NO_RELEASE_DATE
+     * @return - slot holding the reefer
+     */
+    public int put(int reeferId, State state, String orderId, String voyageId, int releaseDay) {
+        int slot = slotOf(reeferId);
+        if (slot < 0) {
+            slot = assignOverflowSlot(reeferId);
+        }
+        if (states[slot] == EMPTY_SLOT) {
+            size++;
+        } else {
+            clearAssignment(slot);
+        }
+        ids[slot] = reeferId;
+        transition(slot, state.ordinal());
+        orders[slot] = symbols.acquire(orderId);
+        link(slot, symbols.acquire(voyageId));
+        releaseDays[slot] = releaseDay;
+        return slot;
+    }
+
+    public int add(int reeferId, State state) {
+        return put(reeferId, state, "", "", NO_RELEASE_DATE);
+    }
+
+    /**
+     * Removes a reefer from the inventory. Overflow slot of the reefer is recycled.
+     *
+     * @param reeferId - reefer id
+     * @return - true if the reefer was in the inventory
+     */
+    public boolean remove(int reeferId) {
+        int slot = denseSlotOf(reeferId);
+        if (slot < 0) {
+            Integer overflowSlot = overflow.remove(reeferId);
+            if (overflowSlot == null) {
+                return false;
+            }
+            slot = overflowSlot;
+            if (freeOverflowCount == freeOverflowSlots.length) {
+                freeOverflowSlots = Arrays.copyOf(freeOverflowSlots, freeOverflowCount * 2);
+            }
+            freeOverflowSlots[freeOverflowCount++] = slot;
+        }
+        if (states[slot] == EMPTY_SLOT) {
+            return false;
+        }
+        clearAssignment(slot);
+        transition(slot, EMPTY_SLOT);
+        size--;
+        return true;
+    }
+
+    /**
+     * Assigns reefer in a given slot to an order. Order and voyage ids are
+     * interned so this call does not create objects.
+     *
+     * @param slot - inventory slot
+     * @param orderId - order id
+     * @param voyageId - voyage id
+     */
+    public void allocateToOrder(int slot, String orderId, String voyageId) {
+        int order = symbols.acquire(orderId);
+        int voyage = symbols.acquire(voyageId);
+        clearAssignment(slot);
+        transition(slot, State.ALLOCATED.ordinal());
+        orders[slot] = order;
+        link(slot, voyage);
+    }
+
+    /**
+     * Returns reefer to the unallocated state clearing its order, voyage and
+     * maintenance date.
+     *
+     * @param reeferId - reefer id
+     */
+    public void reset(int reeferId) {
+        int slot = slotOf(reeferId);
+        clearAssignment(slot);
+        transition(slot, State.UNALLOCATED.ordinal());
+        releaseDays[slot] = NO_RELEASE_DATE;
+    }
+
+    public void removeFromVoyage(int reeferId) {
+        clearAssignment(slotOf(reeferId));
+    }
+
+    /**
+     * Places reefer on maintenance. On maintenance reefers are not associated
+     * with a voyage or order.
+     *
+     * @param reeferId - reefer id
+     * @param releaseDay - epoch day when the reefer comes off maintenance
+     */
+    public void setOnMaintenance(int reeferId, int releaseDay) {
+        int slot = slotOf(reeferId);
+        clearAssignment(slot);
+        transition(slot, State.MAINTENANCE.ordinal());
+        releaseDays[slot] = releaseDay;
+    }
+
+    public void setState(int reeferId, State state) {
+        transition(slotOf(reeferId), state.ordinal());
+    }
+
+    public State getState(int reeferId) {
+        int slot = slotOf(reeferId);
+        return slot < 0 ? null : stateAt(slot);
+    }
+
+    public String getOrderId(int reeferId) {
+        return symbols.get(orders[slotOf(reeferId)]);
+    }
+
+    public String getVoyageId(int reeferId) {
+        return symbols.get(voyages[slotOf(reeferId)]);
+    }
+
+    public int getMaintenanceReleaseDay(int reeferId) {
+        return releaseDays[slotOf(reeferId)];
+    }
+
+    public boolean alreadyBad(int reeferId) {
+        State state = getState(reeferId);
+        return State.MAINTENANCE.equals(state) || State.SPOILT.equals(state);
+    }
+
+    public boolean assignedToOrder(int reeferId) {
+        return orders[slotOf(reeferId)] != SymbolTable.EMPTY;
+    }
+
+    public boolean occupied(int slot) {
+        return states[slot] != EMPTY_SLOT;
+    }
+
+    public int idAt(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * @param slot - inventory slot
+     * @return - state of the reefer or null if the slot is empty
+     */
+    public State stateAt(int slot) {
+        return states[slot] == EMPTY_SLOT ? null : STATES[states[slot]];
+    }
+
+    /**
+     * Returns end of the run of slots starting at a given slot which map to
+     * consecutive reefer ids. Within a shard the run extends to the end of the
+     * shard, overflow slots are compared id by id.
+     *
+     * @param slot - first slot of the run
+     * @param limit - exclusive upper bound on the returned end
+     * @return - exclusive end slot of the run
+     */
+    public int contiguousEnd(int slot, int limit) {
+        if (slot < denseSize) {
+            int shard = Arrays.binarySearch(shardOffsets, slot);
+            if (shard < 0) {
+                shard = -shard - 2;
+            }
+            // skip empty shards sharing the same offset
+            while (shard + 1 < shardOffsets.length && shardOffsets[shard + 1] <= slot) {
+                shard++;
+            }
+            int shardEnd = shard + 1 < shardOffsets.length ? shardOffsets[shard + 1] : denseSize;
+            return Math.min(shardEnd, limit);
+        }
+        int end = slot + 1;
+        while (end < Math.min(limit, highWaterMark) && occupied(end) && occupied(end - 1) && ids[end] == ids[end - 1] + 1) {
+            end++;
+        }
+        return end;
+    }
+
+    public String orderAt(int slot) {
+        return symbols.get(orders[slot]);
+    }
+
+    public String voyageAt(int slot) {
+        return symbols.get(voyages[slot]);
+    }
+
+    /**
+     * @param voyageId - voyage id
+     * @return - ids of reefers assigned to a given voyage
+     */
+    public int[] voyageReefers(String voyageId) {
+        int voyage = symbols.handleOf(voyageId);
+        if (voyage == SymbolTable.EMPTY || voyage >= voyageHeads.length) {
+            return new int[0];
+        }
+        int[] reefers = new int[voyageSizes[voyage]];
+        int i = 0;
+        for (int slot = voyageHeads[voyage]; slot != EMPTY_SLOT; slot = nextInVoyage[slot]) {
+            reefers[i++] = ids[slot];
+        }
+        return reefers;
+    }
+
+    /**
+     * @return - ids of all reefers in the inventory
+     */
+    public IntStream reeferIds() {
+        return IntStream.range(0, highWaterMark).filter(this::occupied).map(this::idAt);
+    }
+
+    /**
+     * @return - number of reefers in the inventory
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return - number of slots in use, dense and overflow
+     */
+    public int capacity() {
+        return highWaterMark;
+    }
+
+    /**
+     * @param state - reefer state
+     * @return - number of reefers in a given state
+     */
+    public int count(State state) {
+        return stateCounts[state.ordinal()];
+    }
+
+    /**
+     * Recounts reefer states with a full scan and compares the result with the
+     * incrementally maintained counts. Meant for debugging only.
+     *
+     * @return - description of the first mismatch or null if counts agree
+     */
+    public String verifyCounts() {
+        int[] actual = new int[STATES.length];
+        int occupied = 0;
+        for (int slot = 0; slot < highWaterMark; slot++) {
+            if (states[slot] != EMPTY_SLOT) {
+                actual[states[slot]]++;
+                occupied++;
+            }
+        }
+        for (State state : STATES) {
+            if (actual[state.ordinal()] != stateCounts[state.ordinal()]) {
+                return state + " count:" + stateCounts[state.ordinal()] + " actual:" + actual[state.ordinal()];
+            }
+        }
+        if (occupied != size) {
+            return "size:" + size + " actual:" + occupied;
+        }
+        return null;
+    }
+
+    public int overflowSize() {
+        return overflow.size();
+    }
+
+    public int symbolCount() {
+        return symbols.size();
+    }
+
+    // the only place where reefer state is changed
+    private void transition(int slot, int newState) {
+        int oldState = states[slot];
+        if (oldState != EMPTY_SLOT) {
+            stateCounts[oldState]--;
+        }
+        if (newState != EMPTY_SLOT) {
+            stateCounts[newState]++;
+        }
+        states[slot] = newState;
+    }
+
+    // adds slot at the head of a given voyage list
+    private void link(int slot, int voyage) {
+        voyages[slot] = voyage;
+        if (voyage == SymbolTable.EMPTY) {
+            return;
+        }
+        if (voyage >= voyageHeads.length) {
+            int oldLength = voyageHeads.length;
+            voyageHeads = Arrays.copyOf(voyageHeads, Math.max(voyage + 1, oldLength * 2));
+            voyageSizes = Arrays.copyOf(voyageSizes, voyageHeads.length);
+            Arrays.fill(voyageHeads, oldLength, voyageHeads.length, EMPTY_SLOT);
+        }
+        int head = voyageHeads[voyage];
+        nextInVoyage[slot] = head;
+        prevInVoyage[slot] = EMPTY_SLOT;
+        if (head != EMPTY_SLOT) {
+            prevInVoyage[head] = slot;
+        }
+        voyageHeads[voyage] = slot;
+        voyageSizes[voyage]++;
+    }
+
+    private void unlink(int slot) {
+        int voyage = voyages[slot];
+        if (voyage == SymbolTable.EMPTY) {
+            return;
+        }
+        int next = nextInVoyage[slot];
+        int prev = prevInVoyage[slot];
+        if (prev == EMPTY_SLOT) {
+            voyageHeads[voyage] = next;
+        } else {
+            nextInVoyage[prev] = next;
+        }
+        if (next != EMPTY_SLOT) {
+            prevInVoyage[next] = prev;
+        }
+        voyageSizes[voyage]--;
+    }
+
+    private void clearAssignment(int slot) {
+        // unlink before the voyage handle is released and possibly recycled
+        unlink(slot);
+        symbols.release(orders[slot]);
+        symbols.release(voyages[slot]);
+        orders[slot] = SymbolTable.EMPTY;
+        voyages[slot] = SymbolTable.EMPTY;
+    }
+
+    private int denseSlotOf(int reeferId) {
+        int lo = 0, hi = shardLowerBounds.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (reeferId < shardLowerBounds[mid]) {
+                hi = mid - 1;
+            } else if (reeferId > shardUpperBounds[mid]) {
+                lo = mid + 1;
+            } else {
+                return shardOffsets[mid] + (int) (reeferId - shardLowerBounds[mid]);
+            }
+        }
+        return -1;
+    }
+
+    private int assignOverflowSlot(int reeferId) {
+        int slot;
+        if (freeOverflowCount > 0) {
+            slot = freeOverflowSlots[--freeOverflowCount];
+        } else {
+            slot = highWaterMark++;
+            if (slot == ids.length) {
+                grow(ids.length + (ids.length >> 1));
+            }
+        }
+        overflow.put(reeferId, slot);
+        return slot;
+    }
+
+    private void grow(int length) {
+        int oldLength = ids.length;
+        ids = Arrays.copyOf(ids, length);
+        states = Arrays.copyOf(states, length);
+        orders = Arrays.copyOf(orders, length);
+        voyages = Arrays.copyOf(voyages, length);
+        releaseDays = Arrays.copyOf(releaseDays, length);
+        nextInVoyage = Arrays.copyOf(nextInVoyage, length);
+        prevInVoyage = Arrays.copyOf(prevInVoyage, length);
+        Arrays.fill(states, oldLength, length, EMPTY_SLOT);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Schedule of reefers on maintenance bucketed by release epoch day. Advancing
+ * the date pops only the buckets which are due so the cost is proportional to
+ * the number of reefers released. Entries are not removed when a reefer
+ * leaves maintenance early, callers validate popped reefers instead.
+ */
+public class MaintenanceCalendar {
+    private final TreeMap<Integer, Bucket> buckets = new TreeMap<>();
+    private int size = 0;
+
+    /**
+     * Schedules reefer release from maintenance.
+     *
+     * @param reeferId - reefer id
+     * @param releaseDay - epoch day when the reefer comes off maintenance
+     */
+    public void schedule(int reeferId, int releaseDay) {
+        buckets.computeIfAbsent(releaseDay, day -> new Bucket()).add(reeferId);
+        size++;
+    }
+
+    /**
+     * Removes and returns all reefers scheduled for release on or before a given day.
+     *
+     * @param today - current epoch day
+     * @return - ids of reefers due for release
+     */
+    public int[] due(int today) {
+        int[] reefers = new int[0];
+        int count = 0;
+        Iterator<Map.Entry<Integer, Bucket>> it = buckets.headMap(today, true).entrySet().iterator();
+        while (it.hasNext()) {
+            Bucket bucket = it.next().getValue();
+            if (count + bucket.size > reefers.length) {
+                reefers = Arrays.copyOf(reefers, count + bucket.size);
+            }
+            System.arraycopy(bucket.reefers, 0, reefers, count, bucket.size);
+            count += bucket.size;
+            it.remove();
+        }
+        size -= count;
+        return reefers;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return - number of scheduled entries including stale ones
+     */
+    public int size() {
+        return size;
+    }
+
+    private static class Bucket {
+        private int[] reefers = new int[8];
+        private int size = 0;
+
+        private void add(int reeferId) {
+            if (size == reefers.length) {
+                reefers = Arrays.copyOf(reefers, size * 2);
+            }
+            reefers[size++] = reeferId;
+        }
+    }
+}
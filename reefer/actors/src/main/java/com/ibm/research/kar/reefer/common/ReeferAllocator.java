@@ -17,15 +17,14 @@
 package com.ibm.research.kar.reefer.common;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.research.kar.reefer.ReeferAppConfig;
-import com.ibm.research.kar.reefer.actors.AnomalyManagerActor;
 import com.ibm.research.kar.reefer.common.ReeferState.State;
 import com.ibm.research.kar.reefer.common.error.ReeferInventoryExhaustedException;
-import com.ibm.research.kar.reefer.model.ReeferDTO;
 
 
 import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
@@ -52,29 +51,96 @@ public class ReeferAllocator {
         return reefers;
     }
 
-    public static List<ReeferDTO> allocateReefers( ReeferDTO[] reeferInventory, int productQuantity, String orderId, String voyageId, int availableReeferCount, String depotId) {
-        List<ReeferDTO>  reefers = new ArrayList<>();
-        // simple calculation for how many reefers are needed for the order. 
-        int howManyReefersNeeded = Double.valueOf(Math.ceil(productQuantity/(double)ReeferAppConfig.ReeferMaxCapacityValue)).intValue();
+    /**
+     * Allocates reefers to an order using the strategy configured in ReeferAppConfig. The
+     * free list holds free inventory slots and is kept in sync with the inventory - every
+     * allocated reefer slot is removed from it.
+     *
+     * @param inventory - depot inventory
+     * @param freeList - free (unallocated) inventory slots
+     * @return - ids of allocated reefers or empty array if there is not enough reefers
+     */
+    public static int[] allocateReefers( DepotInventory inventory, ReeferFreeList freeList, int productQuantity, String orderId, String voyageId, String depotId) {
+        int howManyReefersNeeded = howManyReefersNeeded(productQuantity);
 
-        if ( howManyReefersNeeded > availableReeferCount ) {
+        if ( howManyReefersNeeded > freeList.size() ) {
             logger.log(Level.SEVERE,"ReeferAllocator.allocateReefers - not enough reefers in "+depotId+" inventory to fill order "+orderId+
-                    " voyage: "+voyageId+" - rejecting request for "+howManyReefersNeeded+" reefers since only " + availableReeferCount+" are available");
-            return reefers;
+                    " voyage: "+voyageId+" - rejecting request for "+howManyReefersNeeded+" reefers since only " + freeList.size()+" are available");
+            return new int[0];
+        }
+        if ( "contiguous".equals(ReeferAppConfig.ReeferAllocationStrategy)) {
+            return allocateContiguousReefers(inventory, freeList, howManyReefersNeeded, orderId, voyageId);
         }
+        int[] reefers = new int[howManyReefersNeeded];
+        int allocated = 0;
         try {
-            StringBuilder sb = new StringBuilder();
-            while(howManyReefersNeeded-- > 0 ) {
-                int index = findInsertionIndexForReefer(reeferInventory);
-                ReeferDTO reefer = reeferInventory[index];
-                reefer.allocateToOrder(orderId, voyageId);
-                reefers.add(reefer);
+            while( allocated < howManyReefersNeeded ) {
+                int slot;
+                if ( "random".equals(ReeferAppConfig.ReeferAllocationStrategy)) {
+                    // jump to a random slot and take the first free one from there
+                    slot = freeList.allocateFrom(randomIndex(freeList.capacity()));
+                } else {
+                    slot = freeList.allocate();
+                }
+                if ( slot < 0 ) {
+                    throw new ReeferInventoryExhaustedException();
+                }
+                inventory.allocateToOrder(slot, orderId, voyageId);
+                reefers[allocated++] = inventory.idAt(slot);
             }
         } catch(ReeferInventoryExhaustedException e) {
             logger.log(Level.WARNING,"ReeferAllocator.allocateReefers()",e);
+            return Arrays.copyOf(reefers, allocated);
         }
- 
+        return reefers;
+    }
 
+    /**
+     * Allocates reefers in runs of consecutive ids so that an order is described
+     * by a few id ranges. Picks the smallest free run which holds all the reefers
+     * still needed (best fit). When no run is large enough the largest run is
+     * taken and the search repeats for the remainder.
+     *
+     * @return - ids of allocated reefers
+     */
+    private static int[] allocateContiguousReefers(DepotInventory inventory, ReeferFreeList freeList, int howManyReefersNeeded, String orderId, String voyageId) {
+        int[] reefers = new int[howManyReefersNeeded];
+        int allocated = 0;
+        while ( allocated < howManyReefersNeeded ) {
+            int remaining = howManyReefersNeeded - allocated;
+            int bestStart = -1;
+            int bestLength = 0;
+            for (int start = freeList.nextFree(0); start >= 0; ) {
+                int end = inventory.contiguousEnd(start, freeList.nextTaken(start));
+                int length = end - start;
+                boolean better;
+                if ( bestStart < 0 ) {
+                    better = true;
+                } else if ( length >= remaining ) {
+                    better = bestLength < remaining || length < bestLength;
+                } else {
+                    better = bestLength < remaining && length > bestLength;
+                }
+                if ( better ) {
+                    bestStart = start;
+                    bestLength = length;
+                    if ( length == remaining ) {
+                        // exact fit, can't do better
+                        break;
+                    }
+                }
+                start = freeList.nextFree(end);
+            }
+            if ( bestStart < 0 ) {
+                logger.warning("ReeferAllocator.allocateContiguousReefers() - free list exhausted after allocating "+allocated+" reefers");
+                return Arrays.copyOf(reefers, allocated);
+            }
+            for (int slot = bestStart; slot < bestStart + Math.min(bestLength, remaining); slot++) {
+                freeList.remove(slot);
+                inventory.allocateToOrder(slot, orderId, voyageId);
+                reefers[allocated++] = inventory.idAt(slot);
+            }
+        }
         return reefers;
     }
     private static int randomIndex(int inventorySize) {
@@ -104,26 +170,4 @@ public class ReeferAllocator {
             return findInsertionIndexForReefer(reeferStateList);
         }
     }
-    private static int findInsertionIndexForReefer(ReeferDTO[] reeferInventory) throws ReeferInventoryExhaustedException{
-        int index = randomIndex(reeferInventory.length);
-        // max number of lookup steps before we jump (randomly)
-        int maxSteps = 10;
-        // if lookup hits unassigned spot, we've found an insertion index for a new reefer
-        if (  reeferInventory[index] != null && reeferInventory[index].getState().equals(State.UNALLOCATED) ) {
-            return index;
-        } else {
-            // the random index hit an assigned spot in the list. Do maxSteps to find an unassigned spot
-            for( int i = index; i < reeferInventory.length; i++) {
-                if ( reeferInventory[i] != null && reeferInventory[i].getState().equals(State.UNALLOCATED) ) {
-                   return i;
-                }
-                // after maxSteps lookups an insertion index has not been found in the availableReefers list. Choose
-                // another random index and try again.
-                if ( (i-index) == maxSteps ) {
-                    break;
-                }
-            }
-            return findInsertionIndexForReefer(reeferInventory);
-        }
-    }
 }
\ No newline at end of file
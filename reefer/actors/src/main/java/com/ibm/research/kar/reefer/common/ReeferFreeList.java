@@ -0,0 +1,228 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+/**
+ * Tracks free (unallocated) inventory indexes of a depot using a two level
+ * word packed bitset. Each bit in <code>words</code> marks a free index and
+ * each bit in <code>summary</code> marks a word which has at least one free
+ * index. Allocation starts at a rotating cursor so that consecutive requests
+ * don't rescan exhausted words, and the summary level lets the lookup skip
+ * 4096 allocated indexes per step. Both allocation and release are O(1)
+ * amortized regardless of how full the depot is.
+ */
+public class ReeferFreeList {
+    private static final int WORD_SHIFT = 6;
+    private static final int WORD_MASK = 63;
+
+    private long[] words;
+    private long[] summary;
+    private int capacity;
+    // number of free indexes
+    private int size;
+    // word index where the next lookup begins
+    private int cursor;
+
+    public ReeferFreeList(int capacity) {
+        this.capacity = capacity;
+        this.words = new long[wordCount(capacity)];
+        this.summary = new long[wordCount(words.length)];
+    }
+
+    /**
+     * Marks given index as free. The call is idempotent.
+     *
+     * @param index - inventory index
+     */
+    public void release(int index) {
+        ensureCapacity(index + 1);
+        int w = index >>> WORD_SHIFT;
+        long bit = 1L << (index & WORD_MASK);
+        if ((words[w] & bit) == 0) {
+            words[w] |= bit;
+            summary[w >>> WORD_SHIFT] |= 1L << (w & WORD_MASK);
+            size++;
+        }
+    }
+
+    /**
+     * Marks given index as taken. The call is idempotent.
+     *
+     * @param index - inventory index
+     * @return true if the index was free
+     */
+    public boolean remove(int index) {
+        if (index < 0 || index >= capacity) {
+            return false;
+        }
+        int w = index >>> WORD_SHIFT;
+        long bit = 1L << (index & WORD_MASK);
+        if ((words[w] & bit) == 0) {
+            return false;
+        }
+        clear(w, bit);
+        return true;
+    }
+
+    public boolean isFree(int index) {
+        if (index < 0 || index >= capacity) {
+            return false;
+        }
+        return (words[index >>> WORD_SHIFT] & (1L << (index & WORD_MASK))) != 0;
+    }
+
+    /**
+     * Takes the next free index starting at the cursor, wrapping around at the
+     * end of the bitset.
+     *
+     * @return free index or -1 if there is none
+     */
+    public int allocate() {
+        if (size == 0) {
+            return -1;
+        }
+        int w = nextNonEmptyWord(cursor);
+        if (w < 0) {
+            w = nextNonEmptyWord(0);
+        }
+        long word = words[w];
+        long bit = word & -word;
+        clear(w, bit);
+        cursor = w;
+        return (w << WORD_SHIFT) + Long.numberOfTrailingZeros(bit);
+    }
+
+    /**
+     * Takes the first free index at or after given index, wrapping around at the
+     * end of the bitset.
+     *
+     * @param index - where the lookup begins
+     * @return free index or -1 if there is none
+     */
+    public int allocateFrom(int index) {
+        if (size == 0) {
+            return -1;
+        }
+        int w = index >>> WORD_SHIFT;
+        long word = w < words.length ? words[w] & (-1L << (index & WORD_MASK)) : 0;
+        if (word == 0) {
+            w = nextNonEmptyWord(w + 1);
+            if (w < 0) {
+                w = nextNonEmptyWord(0);
+            }
+            word = words[w];
+        }
+        long bit = word & -word;
+        clear(w, bit);
+        return (w << WORD_SHIFT) + Long.numberOfTrailingZeros(bit);
+    }
+
+    /**
+     * @param index - where the lookup begins
+     * @return - first free index at or after given index or -1 if there is none
+     */
+    public int nextFree(int index) {
+        if (index >= capacity) {
+            return -1;
+        }
+        int w = index >>> WORD_SHIFT;
+        long word = words[w] & (-1L << (index & WORD_MASK));
+        if (word == 0) {
+            w = nextNonEmptyWord(w + 1);
+            if (w < 0) {
+                return -1;
+            }
+            word = words[w];
+        }
+        return (w << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @param index - where the lookup begins
+     * @return - first taken index at or after given index, capacity if all are free
+     */
+    public int nextTaken(int index) {
+        int w = index >>> WORD_SHIFT;
+        long word = w < words.length ? ~words[w] & (-1L << (index & WORD_MASK)) : 0;
+        while (word == 0 && ++w < words.length) {
+            word = ~words[w];
+        }
+        if (word == 0) {
+            return capacity;
+        }
+        return Math.min(capacity, (w << WORD_SHIFT) + Long.numberOfTrailingZeros(word));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Grows the bitset so that it can hold given number of indexes. New indexes
+     * are not free until released.
+     *
+     * @param newCapacity - required number of indexes
+     */
+    public void ensureCapacity(int newCapacity) {
+        if (newCapacity <= capacity) {
+            return;
+        }
+        int newWordCount = wordCount(newCapacity);
+        if (newWordCount > words.length) {
+            long[] grown = new long[Math.max(newWordCount, words.length + (words.length >> 1))];
+            System.arraycopy(words, 0, grown, 0, words.length);
+            words = grown;
+            long[] grownSummary = new long[wordCount(words.length)];
+            System.arraycopy(summary, 0, grownSummary, 0, summary.length);
+            summary = grownSummary;
+        }
+        capacity = newCapacity;
+    }
+
+    private void clear(int w, long bit) {
+        words[w] &= ~bit;
+        if (words[w] == 0) {
+            summary[w >>> WORD_SHIFT] &= ~(1L << (w & WORD_MASK));
+        }
+        size--;
+    }
+
+    // returns index of the first word at or after given word index which has a free bit
+    private int nextNonEmptyWord(int fromWord) {
+        int s = fromWord >>> WORD_SHIFT;
+        if (s >= summary.length) {
+            return -1;
+        }
+        // ignore summary bits for words before fromWord
+        long bits = summary[s] & (-1L << (fromWord & WORD_MASK));
+        while (bits == 0) {
+            if (++s == summary.length) {
+                return -1;
+            }
+            bits = summary[s];
+        }
+        return (s << WORD_SHIFT) + Long.numberOfTrailingZeros(bits);
+    }
+
+    private static int wordCount(int bits) {
+        return Math.max(1, (bits + WORD_MASK) >>> WORD_SHIFT);
+    }
+}
@@ -0,0 +1,777 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Compact set of reefer ids exchanged between actors and kept in actor state.
+ * Ids are partitioned by their high 16 bits into containers, roaring style.
+ * A container holds either sorted ranges of ids or, when the ids are too
+ * fragmented for ranges to pay off, a 65536 bit bitmap.
+ * <p>
+ * The set is encoded as a Base64 string of varint delta coded ranges prefixed
+ * with ENCODING_PREFIX. For backward compatibility decode() also accepts comma
+ * separated id lists.
+ */
+public class ReeferIdSet {
+    public static final String ENCODING_PREFIX = "~";
+    // above this many ranges a bitmap container takes less space
+    private static final int MAX_RUNS = 2048;
+    private static final int RUN_CONTAINER = 0;
+    private static final int BITMAP_CONTAINER = 1;
+
+    // high 16 bits of ids in each container, sorted
+    private int[] keys = new int[4];
+    private Container[] containers = new Container[4];
+    private int count = 0;
+
+    public ReeferIdSet() {
+    }
+
+    public static ReeferIdSet of(int... reeferIds) {
+        ReeferIdSet set = new ReeferIdSet();
+        for (int reeferId : reeferIds) {
+            set.add(reeferId);
+        }
+        return set;
+    }
+
+    public boolean add(int reeferId) {
+        int i = containerIndex(reeferId >>> 16, true);
+        int before = containers[i].cardinality();
+        containers[i] = containers[i].add(reeferId & 0xFFFF);
+        return containers[i].cardinality() > before;
+    }
+
+    /**
+     * Adds all ids in a given inclusive range.
+     *
+     * @param from - first id
+     * @param to - last id
+     */
+    public void addRange(int from, int to) {
+        for (int high = from >>> 16; high <= to >>> 16; high++) {
+            int start = high == from >>> 16 ? from & 0xFFFF : 0;
+            int end = high == to >>> 16 ? to & 0xFFFF : 0xFFFF;
+            int i = containerIndex(high, true);
+            containers[i] = containers[i].or(new RunContainer(start, end));
+        }
+    }
+
+    public boolean remove(int reeferId) {
+        int i = containerIndex(reeferId >>> 16, false);
+        if (i < 0) {
+            return false;
+        }
+        int before = containers[i].cardinality();
+        containers[i] = containers[i].remove(reeferId & 0xFFFF);
+        boolean removed = containers[i].cardinality() < before;
+        if (containers[i].cardinality() == 0) {
+            removeContainer(i);
+        }
+        return removed;
+    }
+
+    public boolean contains(int reeferId) {
+        int i = containerIndex(reeferId >>> 16, false);
+        return i >= 0 && containers[i].contains(reeferId & 0xFFFF);
+    }
+
+    /**
+     * Adds all ids of a given set to this set (union).
+     *
+     * @param other - ids to add
+     * @return - this set
+     */
+    public ReeferIdSet addAll(ReeferIdSet other) {
+        for (int j = 0; j < other.count; j++) {
+            int i = containerIndex(other.keys[j], false);
+            if (i < 0) {
+                i = containerIndex(other.keys[j], true);
+                containers[i] = other.containers[j].copy();
+            } else {
+                containers[i] = containers[i].or(other.containers[j]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Removes all ids of a given set from this set (difference).
+     *
+     * @param other - ids to remove
+     * @return - this set
+     */
+    public ReeferIdSet removeAll(ReeferIdSet other) {
+        for (int j = 0; j < other.count; j++) {
+            int i = containerIndex(other.keys[j], false);
+            if (i >= 0) {
+                containers[i] = containers[i].andNot(other.containers[j]);
+                if (containers[i].cardinality() == 0) {
+                    removeContainer(i);
+                }
+            }
+        }
+        return this;
+    }
+
+    public ReeferIdSet copy() {
+        ReeferIdSet copy = new ReeferIdSet();
+        copy.keys = Arrays.copyOf(keys, keys.length);
+        copy.containers = new Container[containers.length];
+        for (int i = 0; i < count; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.count = count;
+        return copy;
+    }
+
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            size += containers[i].cardinality();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Calls consumer with each id in ascending order.
+     *
+     * @param consumer - id consumer
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < count; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    public int[] toArray() {
+        int[] ids = new int[size()];
+        int[] n = new int[1];
+        forEach(id -> ids[n[0]++] = id);
+        return ids;
+    }
+
+    public IntStream stream() {
+        return IntStream.of(toArray());
+    }
+
+    public PrimitiveIterator.OfInt iterator() {
+        return stream().iterator();
+    }
+
+    /**
+     * Encodes the set as a compact string. Each container is written as its
+     * key delta, type and either varint delta coded ranges or raw bitmap words.
+     *
+     * @return - encoded set
+     */
+    public String encode() {
+        if (count == 0) {
+            return "";
+        }
+        return ENCODING_PREFIX + Base64.getEncoder().withoutPadding().encodeToString(toBytes());
+    }
+
+    /**
+     * @return - binary form of the set used by encode()
+     */
+    public byte[] toBytes() {
+        ByteWriter out = new ByteWriter();
+        out.writeVarint(count);
+        int previousKey = 0;
+        for (int i = 0; i < count; i++) {
+            out.writeVarint(keys[i] - previousKey);
+            previousKey = keys[i];
+            Container c = containers[i];
+            if (c instanceof BitmapContainer && ((BitmapContainer) c).runCount() <= MAX_RUNS) {
+                c = ((BitmapContainer) c).toRuns();
+            }
+            if (c instanceof RunContainer) {
+                RunContainer runs = (RunContainer) c;
+                out.writeVarint(RUN_CONTAINER);
+                out.writeVarint(runs.n);
+                int previousEnd = -1;
+                for (int r = 0; r < runs.n; r++) {
+                    // gap from previous run and run length, both small for clustered ids
+                    out.writeVarint(runs.runs[2 * r] - previousEnd - 1);
+                    out.writeVarint(runs.runs[2 * r + 1] - runs.runs[2 * r]);
+                    previousEnd = runs.runs[2 * r + 1];
+                }
+            } else {
+                out.writeVarint(BITMAP_CONTAINER);
+                for (long word : ((BitmapContainer) c).words) {
+                    out.writeLong(word);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a set produced by encode() or a comma separated list of ids.
+     *
+     * @param encoded - encoded set
+     * @return - decoded set, empty if the input is null or blank
+     */
+    public static ReeferIdSet decode(String encoded) {
+        ReeferIdSet set = new ReeferIdSet();
+        if (encoded == null || encoded.trim().isEmpty()) {
+            return set;
+        }
+        if (!encoded.startsWith(ENCODING_PREFIX)) {
+            return decodeCsv(encoded);
+        }
+        return fromBytes(Base64.getDecoder().decode(encoded.substring(ENCODING_PREFIX.length())));
+    }
+
+    /**
+     * @param bytes - binary form produced by toBytes()
+     * @return - decoded set
+     */
+    public static ReeferIdSet fromBytes(byte[] bytes) {
+        ReeferIdSet set = new ReeferIdSet();
+        if (bytes.length == 0) {
+            return set;
+        }
+        ByteReader in = new ByteReader(bytes);
+        int containerCount = in.readVarint();
+        int key = 0;
+        for (int i = 0; i < containerCount; i++) {
+            key += in.readVarint();
+            Container c;
+            if (in.readVarint() == RUN_CONTAINER) {
+                RunContainer runs = new RunContainer();
+                int n = in.readVarint();
+                int previousEnd = -1;
+                for (int r = 0; r < n; r++) {
+                    int start = previousEnd + 1 + in.readVarint();
+                    int end = start + in.readVarint();
+                    runs.appendRun(start, end);
+                    previousEnd = end;
+                }
+                c = runs;
+            } else {
+                BitmapContainer bitmap = new BitmapContainer();
+                for (int w = 0; w < bitmap.words.length; w++) {
+                    bitmap.words[w] = in.readLong();
+                    bitmap.cardinality += Long.bitCount(bitmap.words[w]);
+                }
+                c = bitmap;
+            }
+            int index = set.containerIndex(key, true);
+            set.containers[index] = c;
+        }
+        return set;
+    }
+
+    private static ReeferIdSet decodeCsv(String csv) {
+        ReeferIdSet set = new ReeferIdSet();
+        int value = 0;
+        boolean digits = false;
+        for (int i = 0; i < csv.length(); i++) {
+            char ch = csv.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                value = value * 10 + (ch - '0');
+                digits = true;
+            } else if (ch == ',') {
+                if (digits) {
+                    set.add(value);
+                }
+                value = 0;
+                digits = false;
+            } else if (!Character.isWhitespace(ch)) {
+                throw new IllegalArgumentException("ReeferIdSet.decode() - invalid reefer id list: " + csv);
+            }
+        }
+        if (digits) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    /**
+     * @return - comma separated id ranges, meant for logging
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int[] range = {-2, -2};
+        forEach(id -> {
+            if (id != range[1] + 1) {
+                appendRange(sb, range[0], range[1]);
+                range[0] = id;
+            }
+            range[1] = id;
+        });
+        appendRange(sb, range[0], range[1]);
+        return sb.toString();
+    }
+
+    private static void appendRange(StringBuilder sb, int start, int end) {
+        if (start < 0) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(",");
+        }
+        sb.append(start);
+        if (end > start) {
+            sb.append("-").append(end);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ReeferIdSet)) {
+            return false;
+        }
+        return Arrays.equals(toArray(), ((ReeferIdSet) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    // returns index of container with a given key, optionally creating an empty one
+    private int containerIndex(int key, boolean create) {
+        int i = Arrays.binarySearch(keys, 0, count, key);
+        if (i >= 0 || !create) {
+            return i;
+        }
+        i = -i - 1;
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            containers = Arrays.copyOf(containers, count * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        System.arraycopy(containers, i, containers, i + 1, count - i);
+        keys[i] = key;
+        containers[i] = new RunContainer();
+        count++;
+        return i;
+    }
+
+    private void removeContainer(int i) {
+        System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, count - i - 1);
+        containers[--count] = null;
+    }
+
+    private abstract static class Container {
+        abstract Container add(int low);
+
+        abstract Container remove(int low);
+
+        abstract boolean contains(int low);
+
+        abstract int cardinality();
+
+        abstract void forEach(int base, IntConsumer consumer);
+
+        abstract BitmapContainer toBitmap();
+
+        abstract Container copy();
+
+        Container or(Container other) {
+            return toBitmap().orBitmap(other.toBitmap()).optimize();
+        }
+
+        Container andNot(Container other) {
+            return toBitmap().andNotBitmap(other.toBitmap()).optimize();
+        }
+    }
+
+    /**
+     * Sorted, non adjacent inclusive ranges stored as start/end pairs.
+     */
+    private static class RunContainer extends Container {
+        private int[] runs;
+        private int n = 0;
+        private int cardinality = 0;
+
+        RunContainer() {
+            runs = new int[4];
+        }
+
+        RunContainer(int start, int end) {
+            runs = new int[]{start, end};
+            n = 1;
+            cardinality = end - start + 1;
+        }
+
+        // appends a run starting at or after the last run start, merging with the last run if they touch
+        void appendRun(int start, int end) {
+            if (n > 0 && runs[2 * n - 1] + 1 >= start) {
+                if (end > runs[2 * n - 1]) {
+                    cardinality += end - runs[2 * n - 1];
+                    runs[2 * n - 1] = end;
+                }
+                return;
+            }
+            if (2 * n == runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[2 * n] = start;
+            runs[2 * n + 1] = end;
+            n++;
+            cardinality += end - start + 1;
+        }
+
+        // index of the last run starting at or before low, or -1
+        private int runIndex(int low) {
+            int lo = 0, hi = n - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (runs[2 * mid] <= low) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi;
+        }
+
+        @Override
+        Container add(int low) {
+            int r = runIndex(low);
+            if (r >= 0 && runs[2 * r + 1] >= low) {
+                return this;
+            }
+            boolean joinsPrevious = r >= 0 && runs[2 * r + 1] + 1 == low;
+            boolean joinsNext = r + 1 < n && runs[2 * (r + 1)] - 1 == low;
+            cardinality++;
+            if (joinsPrevious && joinsNext) {
+                runs[2 * r + 1] = runs[2 * (r + 1) + 1];
+                deleteRun(r + 1);
+            } else if (joinsPrevious) {
+                runs[2 * r + 1] = low;
+            } else if (joinsNext) {
+                runs[2 * (r + 1)] = low;
+            } else {
+                insertRun(r + 1, low, low);
+                if (n > MAX_RUNS) {
+                    return toBitmap();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            int r = runIndex(low);
+            if (r < 0 || runs[2 * r + 1] < low) {
+                return this;
+            }
+            cardinality--;
+            int start = runs[2 * r];
+            int end = runs[2 * r + 1];
+            if (start == end) {
+                deleteRun(r);
+            } else if (start == low) {
+                runs[2 * r] = low + 1;
+            } else if (end == low) {
+                runs[2 * r + 1] = low - 1;
+            } else {
+                runs[2 * r + 1] = low - 1;
+                insertRun(r + 1, low + 1, end);
+                if (n > MAX_RUNS) {
+                    return toBitmap();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(int low) {
+            int r = runIndex(low);
+            return r >= 0 && runs[2 * r + 1] >= low;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int r = 0; r < n; r++) {
+                for (int low = runs[2 * r]; low <= runs[2 * r + 1]; low++) {
+                    consumer.accept(base | low);
+                }
+            }
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int r = 0; r < n; r++) {
+                bitmap.setRange(runs[2 * r], runs[2 * r + 1]);
+            }
+            return bitmap;
+        }
+
+        @Override
+        Container copy() {
+            RunContainer copy = new RunContainer();
+            copy.runs = Arrays.copyOf(runs, Math.max(4, 2 * n));
+            copy.n = n;
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (!(other instanceof RunContainer)) {
+                return super.or(other);
+            }
+            RunContainer o = (RunContainer) other;
+            RunContainer result = new RunContainer();
+            int i = 0, j = 0;
+            // merge both run lists by start, coalescing overlapping and adjacent runs
+            while (i < n || j < o.n) {
+                if (j == o.n || (i < n && runs[2 * i] <= o.runs[2 * j])) {
+                    result.appendRun(runs[2 * i], runs[2 * i + 1]);
+                    i++;
+                } else {
+                    result.appendRun(o.runs[2 * j], o.runs[2 * j + 1]);
+                    j++;
+                }
+            }
+            return result.n > MAX_RUNS ? result.toBitmap() : result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            if (!(other instanceof RunContainer)) {
+                return super.andNot(other);
+            }
+            RunContainer o = (RunContainer) other;
+            RunContainer result = new RunContainer();
+            int j = 0;
+            for (int i = 0; i < n; i++) {
+                int start = runs[2 * i];
+                int end = runs[2 * i + 1];
+                // skip removed runs which end before this run
+                while (j < o.n && o.runs[2 * j + 1] < start) {
+                    j++;
+                }
+                int k = j;
+                while (k < o.n && o.runs[2 * k] <= end) {
+                    if (o.runs[2 * k] > start) {
+                        result.appendRun(start, o.runs[2 * k] - 1);
+                    }
+                    start = o.runs[2 * k + 1] + 1;
+                    k++;
+                }
+                if (start <= end) {
+                    result.appendRun(start, end);
+                }
+            }
+            return result.n > MAX_RUNS ? result.toBitmap() : result;
+        }
+
+        private void insertRun(int r, int start, int end) {
+            if (2 * n == runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            System.arraycopy(runs, 2 * r, runs, 2 * r + 2, 2 * (n - r));
+            runs[2 * r] = start;
+            runs[2 * r + 1] = end;
+            n++;
+        }
+
+        private void deleteRun(int r) {
+            System.arraycopy(runs, 2 * r + 2, runs, 2 * r, 2 * (n - r - 1));
+            n--;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+        private int cardinality = 0;
+
+        @Override
+        Container add(int low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                words[low >>> 6] &= ~bit;
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    consumer.accept(base | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        void setRange(int start, int end) {
+            for (int low = start; low <= end; low++) {
+                add(low);
+            }
+        }
+
+        BitmapContainer orBitmap(BitmapContainer other) {
+            BitmapContainer result = new BitmapContainer();
+            for (int w = 0; w < words.length; w++) {
+                result.words[w] = words[w] | other.words[w];
+                result.cardinality += Long.bitCount(result.words[w]);
+            }
+            return result;
+        }
+
+        BitmapContainer andNotBitmap(BitmapContainer other) {
+            BitmapContainer result = new BitmapContainer();
+            for (int w = 0; w < words.length; w++) {
+                result.words[w] = words[w] & ~other.words[w];
+                result.cardinality += Long.bitCount(result.words[w]);
+            }
+            return result;
+        }
+
+        // number of ranges the bitmap would take as a run container
+        int runCount() {
+            int runs = 0;
+            long previousHighBit = 0;
+            for (long word : words) {
+                // a run starts at each set bit whose lower neighbour is clear
+                runs += Long.bitCount(word & ~((word << 1) | previousHighBit));
+                previousHighBit = word >>> 63;
+            }
+            return runs;
+        }
+
+        RunContainer toRuns() {
+            RunContainer result = new RunContainer();
+            forEach(0, low -> result.appendRun(low, low));
+            return result;
+        }
+
+        Container optimize() {
+            return runCount() <= MAX_RUNS ? toRuns() : this;
+        }
+    }
+
+    private static class ByteWriter {
+        private byte[] buffer = new byte[64];
+        private int size = 0;
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeLong(long value) {
+            for (int i = 0; i < 8; i++) {
+                write((int) (value >>> (8 * i)));
+            }
+        }
+
+        private void write(int b) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static class ByteReader {
+        private final byte[] buffer;
+        private int position = 0;
+
+        ByteReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        int readVarint() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = buffer[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value |= (buffer[position++] & 0xFFL) << (8 * i);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import java.util.Arrays;
+
+/**
+ * Location of every reefer in the fleet kept in a single int array indexed by
+ * reefer id. Each entry packs the location type (Constants.DEPOT_TARGET_TYPE or
+ * Constants.VOYAGE_TARGET_TYPE) in the low two bits and the location ordinal in
+ * the remaining bits. Depot ordinals are assigned by the caller, voyage ids are
+ * interned into a reference counted symbol table so that handles of completed
+ * voyages are recycled. A 1M reefer fleet takes 4MB.
+ * <p>
+ * Reefers currently on each voyage are also indexed by voyage handle so that
+ * arrival processing visits only the reefers on the arriving ship.
+ * <p>
+ * Every location change stamps the reefer with the next value of a table wide
+ * epoch counter. Anomalies routed with an epoch can later be checked against the
+ * reefer's current epoch to tell whether the reefer moved since.
+ */
+public class ReeferLocationTable {
+    public static final int UNKNOWN = 0;
+    private static final int TYPE_BITS = 2;
+    private static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+
+    private int[] locations;
+    // epoch of the last location change of each reefer
+    private int[] epochs;
+    private int epoch = 0;
+    private final SymbolTable voyages = new SymbolTable();
+    // reefers on each voyage indexed by voyage handle
+    private ReeferIdSet[] voyageReefers = new ReeferIdSet[16];
+    private int size = 0;
+
+    public ReeferLocationTable(int capacity) {
+        locations = new int[Math.max(16, capacity)];
+        epochs = new int[locations.length];
+    }
+
+    /**
+     * @param reeferId - reefer id
+     * @param depot - depot ordinal, greater than 0
+     */
+    public void setDepot(int reeferId, int depot) {
+        set(reeferId, depot << TYPE_BITS | Constants.DEPOT_TARGET_TYPE);
+    }
+
+    /**
+     * @param reeferId - reefer id
+     * @param voyageId - voyage id
+     */
+    public void setVoyage(int reeferId, String voyageId) {
+        // acquire before releasing the old handle in case the reefer is already on this voyage
+        int voyage = voyages.acquire(voyageId);
+        set(reeferId, voyage << TYPE_BITS | Constants.VOYAGE_TARGET_TYPE);
+    }
+
+    public boolean contains(int reeferId) {
+        return reeferId >= 0 && reeferId < locations.length && locations[reeferId] != UNKNOWN;
+    }
+
+    /**
+     * @param reeferId - reefer id
+     * @return - location type of a given reefer or UNKNOWN
+     */
+    public int targetType(int reeferId) {
+        return contains(reeferId) ? locations[reeferId] & TYPE_MASK : UNKNOWN;
+    }
+
+    /**
+     * @param reeferId - reefer id
+     * @return - ordinal of the depot holding a given reefer
+     */
+    public int depot(int reeferId) {
+        return locations[reeferId] >>> TYPE_BITS;
+    }
+
+    /**
+     * @param reeferId - reefer id
+     * @return - id of the voyage carrying a given reefer
+     */
+    public String voyage(int reeferId) {
+        return voyages.get(locations[reeferId] >>> TYPE_BITS);
+    }
+
+    /**
+     * @param reeferId - reefer id
+     * @return - epoch of the last location change of a given reefer, 0 if unknown
+     */
+    public int epoch(int reeferId) {
+        return contains(reeferId) ? epochs[reeferId] : 0;
+    }
+
+    /**
+     * @return - epoch of the most recent location change
+     */
+    public int epoch() {
+        return epoch;
+    }
+
+    /**
+     * Continues epochs from a given value once the table has been restored from a
+     * snapshot. Epochs of individual reefers are not saved so every reefer is treated
+     * as moved at that epoch.
+     *
+     * @param epoch - last epoch before the table was restored
+     */
+    public void restoreEpoch(int epoch) {
+        this.epoch = epoch;
+        Arrays.fill(epochs, epoch);
+    }
+
+    /**
+     * @param voyageId - voyage id
+     * @return - ids of reefers on a given voyage
+     */
+    public int[] voyageReefers(String voyageId) {
+        int voyage = voyages.handleOf(voyageId);
+        if (voyage == SymbolTable.EMPTY || voyageReefers[voyage] == null) {
+            return new int[0];
+        }
+        return voyageReefers[voyage].toArray();
+    }
+
+    /**
+     * @return - one past the highest reefer id the table can hold
+     */
+    public int capacity() {
+        return locations.length;
+    }
+
+    /**
+     * @return - number of reefers with a known location
+     */
+    public int size() {
+        return size;
+    }
+
+    private void set(int reeferId, int location) {
+        ensureCapacity(reeferId + 1);
+        int previous = locations[reeferId];
+        if (previous == UNKNOWN) {
+            size++;
+        } else if ((previous & TYPE_MASK) == Constants.VOYAGE_TARGET_TYPE) {
+            int voyage = previous >>> TYPE_BITS;
+            voyageReefers[voyage].remove(reeferId);
+            if (voyageReefers[voyage].isEmpty()) {
+                // the handle is recycled once its last reefer leaves
+                voyageReefers[voyage] = null;
+            }
+            voyages.release(voyage);
+        }
+        if ((location & TYPE_MASK) == Constants.VOYAGE_TARGET_TYPE) {
+            int voyage = location >>> TYPE_BITS;
+            if (voyage >= voyageReefers.length) {
+                voyageReefers = Arrays.copyOf(voyageReefers, Math.max(voyage + 1, voyageReefers.length * 2));
+            }
+            if (voyageReefers[voyage] == null) {
+                voyageReefers[voyage] = new ReeferIdSet();
+            }
+            voyageReefers[voyage].add(reeferId);
+        }
+        locations[reeferId] = location;
+        epochs[reeferId] = ++epoch;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > locations.length) {
+            locations = Arrays.copyOf(locations, Math.max(capacity, locations.length + (locations.length >> 1)));
+            epochs = Arrays.copyOf(epochs, locations.length);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import com.ibm.research.kar.reefer.model.Voyage;
+
+import java.util.*;
+
+/**
+ * Lookup structures over the master schedule. Voyages are indexed by id and by
+ * sail and arrival epoch days so that point lookups are O(1) and date range queries
+ * are O(log n + k) instead of scanning a year of voyages. Each route (origin and
+ * destination port pair) also has its own sail date ordered index which serves
+ * voyage matching for order booking. The index references
+ * the same Voyage instances as the master schedule and is kept in step with it
+ * as voyages are appended and expired.
+ */
+public class ScheduleIndex {
+    private final Map<String, Voyage> voyages = new HashMap<>();
+    private final NavigableMap<Integer, List<Voyage>> bySailDate = new TreeMap<>();
+    private final NavigableMap<Integer, List<Voyage>> byArrivalDate = new TreeMap<>();
+    // sail date ordered voyages of each route keyed by routeKey()
+    private final Map<String, NavigableMap<Integer, List<Voyage>>> byRoute = new HashMap<>();
+    // most recently departing voyage of each ship keyed by vessel name
+    private final Map<String, Voyage> lastVoyages = new HashMap<>();
+    private int maxDaysAtSea = 0;
+    private int maxDaysAtPort = 0;
+
+    public ScheduleIndex(Collection<Voyage> schedule) {
+        schedule.forEach(this::add);
+    }
+
+    public void add(Voyage voyage) {
+        voyages.put(voyage.getId(), voyage);
+        bySailDate.computeIfAbsent(voyage.sailDay(), day -> new ArrayList<>(2)).add(voyage);
+        byArrivalDate.computeIfAbsent(voyage.arrivalDay(), day -> new ArrayList<>(2)).add(voyage);
+        byRoute.computeIfAbsent(routeKey(voyage.getRoute().getOriginPort(), voyage.getRoute().getDestinationPort()),
+                route -> new TreeMap<>()).
+                computeIfAbsent(voyage.sailDay(), day -> new ArrayList<>(1)).add(voyage);
+        lastVoyages.merge(voyage.getRoute().getVessel().getName(), voyage,
+                (last, next) -> next.sailDay() < last.sailDay() ? last : next);
+        maxDaysAtSea = Math.max(maxDaysAtSea, voyage.getRoute().getDaysAtSea());
+        maxDaysAtPort = Math.max(maxDaysAtPort, voyage.getRoute().getDaysAtPort());
+    }
+
+    public void remove(Voyage voyage) {
+        if (voyages.remove(voyage.getId(), voyage)) {
+            removeFrom(bySailDate, voyage.sailDay(), voyage);
+            removeFrom(byArrivalDate, voyage.arrivalDay(), voyage);
+            NavigableMap<Integer, List<Voyage>> route =
+                    byRoute.get(routeKey(voyage.getRoute().getOriginPort(), voyage.getRoute().getDestinationPort()));
+            if (route != null) {
+                removeFrom(route, voyage.sailDay(), voyage);
+            }
+            lastVoyages.remove(voyage.getRoute().getVessel().getName(), voyage);
+        }
+    }
+
+    /**
+     * @param voyageId - voyage id
+     * @return - voyage with a given id or null if not in the schedule
+     */
+    public Voyage get(String voyageId) {
+        return voyages.get(voyageId);
+    }
+
+    /**
+     * @param from - first sail epoch day, inclusive
+     * @param to - last sail epoch day, inclusive
+     * @return - voyages departing in a given range of days ordered by sail date
+     */
+    public List<Voyage> departing(int from, int to) {
+        if (to < from) {
+            return new ArrayList<>();
+        }
+        return flatten(bySailDate.subMap(from, true, to, true));
+    }
+
+    /**
+     * @param origin - origin port
+     * @param destination - destination port
+     * @param day - first sail epoch day, inclusive
+     * @return - voyages between given ports departing on or after a given day ordered by sail date
+     */
+    public List<Voyage> departingOnOrAfter(String origin, String destination, int day) {
+        NavigableMap<Integer, List<Voyage>> route = byRoute.get(routeKey(origin, destination));
+        if (route == null) {
+            return new ArrayList<>();
+        }
+        return flatten(route.tailMap(day, true));
+    }
+
+    /**
+     * @param from - first arrival epoch day, inclusive
+     * @param to - last arrival epoch day, inclusive
+     * @return - voyages arriving in a given range of days ordered by arrival date
+     */
+    public List<Voyage> arriving(int from, int to) {
+        if (to < from) {
+            return new ArrayList<>();
+        }
+        return flatten(byArrivalDate.subMap(from, true, to, true));
+    }
+
+    /**
+     * @param vesselName - ship name
+     * @return - last scheduled voyage of a given ship or null if none
+     */
+    public Voyage lastVoyage(String vesselName) {
+        return lastVoyages.get(vesselName);
+    }
+
+    /**
+     * @return - longest voyage of any ship in the schedule
+     */
+    public int getMaxDaysAtSea() {
+        return maxDaysAtSea;
+    }
+
+    /**
+     * @return - longest stay at port of any ship in the schedule
+     */
+    public int getMaxDaysAtPort() {
+        return maxDaysAtPort;
+    }
+
+    public int size() {
+        return voyages.size();
+    }
+
+    private static void removeFrom(Map<Integer, List<Voyage>> map, int day, Voyage voyage) {
+        List<Voyage> list = map.get(day);
+        if (list != null && list.remove(voyage) && list.isEmpty()) {
+            map.remove(day);
+        }
+    }
+
+    private static String routeKey(String origin, String destination) {
+        // port names never contain ':', it separates the ports in routes.txt
+        return origin + ":" + destination;
+    }
+
+    private static List<Voyage> flatten(Map<Integer, List<Voyage>> range) {
+        List<Voyage> list = new ArrayList<>();
+        range.values().forEach(list::addAll);
+        return list;
+    }
+}
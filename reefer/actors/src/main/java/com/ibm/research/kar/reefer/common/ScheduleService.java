@@ -17,6 +17,7 @@
 package com.ibm.research.kar.reefer.common;
 
 import com.ibm.research.kar.reefer.common.error.VoyageNotFoundException;
+import com.ibm.research.kar.reefer.common.time.EpochDay;
 import com.ibm.research.kar.reefer.common.time.TimeUtils;
 import com.ibm.research.kar.reefer.model.Route;
 import com.ibm.research.kar.reefer.model.Vessel;
@@ -25,7 +26,6 @@ import org.apache.commons.lang.exception.ExceptionUtils;
 
 import javax.json.JsonArray;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,13 +34,18 @@ import java.util.stream.Collectors;
 
 public class ScheduleService {
 
-    public static final int THRESHOLD_IN_DAYS = 100; //30; //100;
     public static final int SCHEDULE_DAYS = 365; //60; //365;
     public static final int ARRIVED_THRESHOLD_IN_DAYS = 2; //1;
 
     private ShippingScheduler scheduler;
 
     private Set<Voyage> masterSchedule = new TreeSet<>();
+    private ScheduleIndex index = new ScheduleIndex(masterSchedule);
+    private ActiveVoyageWindow activeWindow = new ActiveVoyageWindow();
+    // ids of scheduled voyages which took orders. Only those have actor state to remove on expiry
+    private final Set<String> voyagesWithOrders = new HashSet<>();
+    // ids of expired voyages which took orders, until drained
+    private List<String> expiredVoyages = new ArrayList<>();
     private List<Route> routes = new ArrayList<>();
     private static Logger logger = ReeferLoggerFormatter.getFormattedLogger(ScheduleService.class.getName());
 
@@ -63,10 +68,9 @@ public class ScheduleService {
         return scheduler.getVessels();
     }
     public Voyage getVoyage(final String voyageId) throws VoyageNotFoundException {
-        Optional<Voyage> voyage =
-                masterSchedule.stream().filter(v -> v.getId().equals(voyageId)).findFirst();
-        if (voyage.isPresent()) {
-            return voyage.get();
+        Voyage voyage = index.get(voyageId);
+        if (voyage != null) {
+            return voyage;
         }
         throw new VoyageNotFoundException("ScheduleService.getVoyage() - voyage:" + voyageId + " not found in MasterSchedule");
     }
@@ -79,6 +83,8 @@ public class ScheduleService {
      */
     public Instant generateShipSchedule(Instant baseScheduleDate, Instant currentDate, Instant lastVoyageDate) {
         masterSchedule = scheduler.generateSchedule(baseScheduleDate, lastVoyageDate, currentDate);
+        index = new ScheduleIndex(masterSchedule);
+        activeWindow = new ActiveVoyageWindow();
         if (logger.isLoggable(Level.FINE)) {
             logger.log(Level.FINE,"ScheduleService.generateShipSchedule() - generated schedule - size:" + masterSchedule.size()+" dumping schedule ....");
             try {
@@ -103,127 +109,123 @@ public class ScheduleService {
     }
 
     /**
-     * This is called while REST is running to make sure the schedule doesn't run out of voyages.
-     * The schedule start date is always the same (cold start date), the end date is extended by
-     * value from SCHEDULE_DAYS. While generating a new schedule, all voyages that have arrived
-     * up to ARRIVED_THRESHOLD_IN_DAYS before now will be excluded.
+     * This is called on every day change to make sure the schedule doesn't run out of voyages.
+     * The schedule is rolled forward so that it always covers SCHEDULE_DAYS from today. Only
+     * voyages departing after the last scheduled voyage of each ship are generated and appended,
+     * existing voyages keep their identity along with order counts, progress and free capacity.
+     * Voyages that arrived before the retention window are expired. Since this runs daily each
+     * call generates about a day worth of voyages regardless of the schedule length.
      *
-     * @param currentScheduleEndDate - date of the last voyage departure in the current schedule
-     * @param currentDate            - today
+     * @param currentDate - today
+     * @return - departure date of the last voyage in the schedule
      */
-    public Instant extendSchedule(Instant baseDate, Instant currentScheduleEndDate, Instant currentDate) {
-        if (logger.isLoggable(Level.FINE)) {
-            logger.fine("ScheduleService() - extendSchedule() ============================================ ");
+    public Instant extendSchedule(Instant currentDate) {
+        Instant endDate = TimeUtils.getInstance().futureDate(currentDate, SCHEDULE_DAYS);
+        int added = 0;
+        for (Route route : getRoutes()) {
+            Voyage lastVoyage = index.lastVoyage(route.getVessel().getName());
+            for (Voyage voyage : ShippingScheduler.extendShipSchedule(route, lastVoyage, endDate)) {
+                masterSchedule.add(voyage);
+                index.add(voyage);
+                added++;
+            }
         }
-        // add N (where N=SCHEDULE_DAYS) days to the end of the current schedule.
-        Instant endDate = TimeUtils.getInstance().futureDate(currentScheduleEndDate, SCHEDULE_DAYS);
-        // every schedule starts on the same date (date of the REST cold start)
-
-        List<Voyage> activeScheduleBefore = getActiveSchedule(currentDate);
-        //Instant baseDate = scheduleBaseDate.get();
-        // hold on to the current schedule. Need it to copy active and booked voyages
-        // order counts, progress and free capacities
-        Set<Voyage> previousSchedule = masterSchedule;
-        // generate new schedule for a given range of dates. It will trim arrived
-        // voyages to reduce schedule size.
-        masterSchedule = scheduler.generateSchedule(baseDate, endDate, currentDate);
-        // update current active and booked voyages with data from previous schedule
-        masterSchedule.forEach(v -> {
-            updateVoyage(v, previousSchedule);
-        });
+        int expired = expireVoyages(currentDate);
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("ScheduleService.extendSchedule() >>>> currentDate:" +
                     currentDate.toString().replace("T00:00:00Z", "") +
-                    " baseDate:" + baseDate.toString().replace("T00:00:00Z", "") +
                     " endDate:" + endDate.toString().replace("T00:00:00Z", "") +
-                    " trimDate:" + currentDate.minus(ScheduleService.ARRIVED_THRESHOLD_IN_DAYS, ChronoUnit.DAYS).toString().replace("T00:00:00Z", "") +
-                    " previous schedule size:" + previousSchedule.size() +
+                    " added:" + added + " expired:" + expired +
                     " current schedule size:" + masterSchedule.size());
         }
-        previousSchedule.clear();
-        // persist last voyage departure date which will be used to restore schedule after
-        // REST restart
-        if (logger.isLoggable(Level.FINE)) {
-            masterSchedule.forEach(v -> System.out.println(">>>> Voyage:" +
-                    v.getId() +
-                    " Departure:" +
-                    v.getSailDateObject() +
-                    " Arrival:" + v.getArrivalDate()));
-        }
-        // new active schedule (created from new schedule) must match previous active schedule
-        validateSchedule(activeScheduleBefore, "extension", currentDate, baseDate);
-       // dumpVoyages(masterSchedule);
-        return ((TreeSet<Voyage>) masterSchedule).last().getSailDateObject();
+        return lastVoyageDepartureDate();
     }
 
-    private void updateVoyage(Voyage voyage, Set<Voyage> previousSchedule) {
-        for (Voyage v : previousSchedule) {
-            if (v.getId().equals(voyage.getId())) {
-                voyage.setOrderCount(v.getOrderCount());
-                voyage.setFreeCapacity(v.getRoute().getVessel().getFreeCapacity());
-                voyage.setProgress(v.getProgress());
+    /**
+     * Removes voyages that arrived before the retention window. The window is never shorter
+     * than the longest stay at port so active voyages are not expired.
+     *
+     * @param currentDate - today
+     * @return - number of expired voyages
+     */
+    private int expireVoyages(Instant currentDate) {
+        int retentionDay = EpochDay.of(currentDate) - Math.max(ARRIVED_THRESHOLD_IN_DAYS, index.getMaxDaysAtPort());
+        int expired = 0;
+        Iterator<Voyage> it = masterSchedule.iterator();
+        while (it.hasNext()) {
+            Voyage voyage = it.next();
+            if (voyage.sailDay() >= retentionDay) {
+                // voyages sailing on or after the retention date can't have arrived before it
                 break;
             }
+            if (voyage.shipArrived(retentionDay)) {
+                it.remove();
+                index.remove(voyage);
+                activeWindow.remove(voyage);
+                if (voyagesWithOrders.remove(voyage.getId())) {
+                    // only voyages which took orders have actor state
+                    expiredVoyages.add(voyage.getId());
+                }
+                expired++;
+            }
         }
-
+        return expired;
     }
 
-    private void validateSchedule(List<Voyage> originalActiveSchedule, String lbl, Instant currentDate, Instant scheduleBaseDate) {
-        List<Voyage> activeScheduleNow = getActiveSchedule(currentDate);
-
-        if (!activeListsMatch(originalActiveSchedule, activeScheduleNow)) {
-            logger.log(Level.FINE, "ScheduleService.validateSchedule() - After " + lbl + " active schedule does not match pre-" + lbl + " schedule ");
-            logger.log(Level.FINE, "Before " + lbl + " Active List:");
-            dumpVoyages(originalActiveSchedule);
-            logger.log(Level.FINE, "After " + lbl + " Active List:");
-            if ( logger.isLoggable(Level.FINE)) {
-                dumpVoyages(activeScheduleNow);
-            }
-        }
+    /**
+     * Records that a voyage took an order
+     *
+     * @param voyageId - voyage id
+     * @return - true if this is the first order of the voyage
+     */
+    public boolean voyageTookOrder(String voyageId) {
+        return voyagesWithOrders.add(voyageId);
     }
 
-    private void dumpVoyages(Collection<Voyage> schedule) {
-        for( Voyage v: schedule ) {
-            logger.log(Level.FINE, "Master Schedule Voyage:" + v.getId() + " departure:" + v.getSailDateObject() + " arrival:" + v.getArrivalDate());
+    /**
+     * Restores ids of voyages which took orders before a restart. Voyages that are no
+     * longer in the regenerated schedule arrived before it and are expired right away.
+     *
+     * @param voyageIds - ids of voyages which took orders
+     */
+    public void restoreVoyagesWithOrders(Collection<String> voyageIds) {
+        for (String voyageId : voyageIds) {
+            if (index.get(voyageId) == null) {
+                expiredVoyages.add(voyageId);
+            } else {
+                voyagesWithOrders.add(voyageId);
+            }
         }
     }
 
-    private boolean activeListsMatch(List<Voyage> actives1, List<Voyage> actives2) {
-        if (actives1.size() != actives2.size()) {
-            return false;
-        }
-        return actives1.stream().allMatch(v -> actives2.contains(v));
+    /**
+     * @return - ids of expired voyages which took orders since the last call
+     */
+    public List<String> drainExpiredVoyages() {
+        List<String> ids = expiredVoyages;
+        expiredVoyages = new ArrayList<>();
+        return ids;
     }
 
     public Voyage updateDaysAtSea(String voyageId, int daysOutAtSea) throws VoyageNotFoundException {
-
-        for (Voyage voyage : masterSchedule) {
-            if (voyage.getId().equals(voyageId)) {
-                voyage.getRoute().getVessel().setPosition(daysOutAtSea);
-                int progress = Math.round((daysOutAtSea / (float) voyage.getRoute().getDaysAtSea()) * 100);
-                voyage.setProgress(progress);
-                return voyage;
-            }
+        Voyage voyage = index.get(voyageId);
+        if (voyage != null) {
+            voyage.getRoute().getVessel().setPosition(daysOutAtSea);
+            int progress = Math.round((daysOutAtSea / (float) voyage.getRoute().getDaysAtSea()) * 100);
+            voyage.setProgress(progress);
+            activeWindow.changed(voyage);
+            return voyage;
         }
         throw new VoyageNotFoundException("Voyage " + voyageId + " Not Found - current date: "+TimeUtils.getInstance().getCurrentDate());
     }
 
     public List<Voyage> getMatchingSchedule(Instant startDate, Instant endDate) {
-        return masterSchedule.
-                stream().
-                filter(voyage -> voyage.getSailDateObject().equals(startDate) || voyage.getSailDateObject().isAfter(startDate)).
-                filter(voyage -> voyage.getSailDateObject().equals(endDate) || voyage.getSailDateObject().isBefore(endDate)).
-                collect(Collectors.toList());
+        return index.departing(EpochDay.of(startDate), EpochDay.of(endDate));
     }
 
 
     public List<Voyage> getMatchingSchedule(String origin, String destination, Instant date) {
-        return masterSchedule.
-                stream().
-                filter(voyage -> voyage.getSailDateObject().equals(date) || voyage.getSailDateObject().isAfter(date)).
-                filter(voyage -> voyage.getRoute().getOriginPort().equals(origin)
-                        && voyage.getRoute().getDestinationPort().equals(destination)).
-                collect(Collectors.toList());
+        return index.departingOnOrAfter(origin, destination, EpochDay.of(date));
     }
 
     /*
@@ -236,14 +238,20 @@ public class ScheduleService {
 
     public List<Voyage> getActiveVoyages() {
         Instant currentDate = TimeUtils.getInstance().getCurrentDate();
-        List<Voyage> scheduledVoyages = getActiveSchedule(currentDate);
-        StringBuilder sb = new StringBuilder();
-        if ( logger.isLoggable(Level.FINE)) {
-            for( Voyage v : scheduledVoyages ) {
-                sb.append("+++++ ").append(v.getId()).append(" progress:").append(v.getProgress()).append("\n");
-            }
+        if (activeWindow.isPositioned()) {
+            activeWindow.advance(currentDate, index);
+        } else {
+            // the schedule scan is only needed to position the window after the schedule is generated
+            activeWindow.reset(currentDate, getActiveSchedule(currentDate));
         }
-        return scheduledVoyages;
+        return activeWindow.getVoyages();
+    }
+
+    /**
+     * @return - window of active voyages, used to persist only the voyages which changed
+     */
+    public ActiveVoyageWindow getActiveVoyageWindow() {
+        return activeWindow;
     }
     private List<Voyage> getActiveSchedule(Instant currentDate) {
         List<Voyage> activeSchedule = new ArrayList<>();
@@ -258,28 +266,34 @@ public class ScheduleService {
             logger.fine(sb.toString());
         }
 
-        for (Voyage voyage : masterSchedule) {
-            if (voyage.getSailDateObject().isAfter(currentDate)) {
-                // masterSchedule is sorted by sailDate, so if voyage sailDate > currentDate
-                // we just stop iterating since all voyages beyond this point sail in the future.
-                break;
+        // Only voyages that arrived within the last few days can still be at port. Older
+        // ones are trimmed on the next schedule generation anyway. Voyages that already
+        // sailed arrive no later than the longest voyage from now.
+        int today = EpochDay.of(currentDate);
+        int horizon = today - Math.max(ARRIVED_THRESHOLD_IN_DAYS, index.getMaxDaysAtPort());
+        for (Voyage voyage : index.arriving(horizon, today + index.getMaxDaysAtSea())) {
+            if (voyage.sailDay() > today) {
+                // sails in the future
+                continue;
             }
             // active voyage = sailed before current date AND
             // not arrived yet OR arrived but still at port.
             // Each ship stays at port for configurable amount
             // of time ( currently two days).
-            if ( !voyage.shipArrived() || atPortStill(currentDate, voyage)  ) {
+            if ( !voyage.shipArrived() || atPortStill(today, voyage)  ) {
                 activeSchedule.add(voyage);
             }
         }
+        // callers expect the sail date order of the master schedule
+        activeSchedule.sort(Comparator.comparingInt(Voyage::sailDay));
         return activeSchedule;
     }
-    private boolean atPortStill(Instant currentDate, Voyage voyage) {
-        Instant returnVoyageDate = TimeUtils.getInstance().futureDate(Instant.parse(voyage.getArrivalDate()), voyage.getRoute().getDaysAtPort());
-        return ( voyage.shipArrived() && ( TimeUtils.getInstance().isSameDay(returnVoyageDate, currentDate) || currentDate.isBefore(returnVoyageDate)) );
+    private boolean atPortStill(int today, Voyage voyage) {
+        int returnVoyageDay = voyage.arrivalDay() + voyage.getRoute().getDaysAtPort();
+        return ( voyage.shipArrived() && today <= returnVoyageDay );
     }
     public Set<Voyage> findVoyagesBeyondArrivalDate(JsonArray activeOrders) {
-        Instant today = TimeUtils.getInstance().getCurrentDate();
+        int today = EpochDay.of(TimeUtils.getInstance().getCurrentDate());
         return activeOrders.
                 stream().
                 map(jv -> {
@@ -290,7 +304,7 @@ public class ScheduleService {
                     }
                 }).
                 filter(Objects::nonNull).
-                filter(v -> TimeUtils.getInstance().getDaysBetween(Instant.parse(v.getArrivalDate()), today) > 5).
+                filter(v -> today - v.arrivalDay() > 5).
                 collect(Collectors.toSet());
     }
 
@@ -66,16 +66,20 @@ public class ShippingScheduler {
         Instant arrivalDate;
         Instant departureDate = firstDepartureDate;
         Set<Voyage> schedule = new TreeSet<>();
+        // the first generated leg is outbound
+        boolean lastLegOutbound = false;
         while(departureDate.isBefore(endDate) || departureDate.equals(endDate) ) {
            // get the ship arrival date at destination port (departureDate+transitTime)
             arrivalDate = TimeUtils.getInstance().futureDate(departureDate, route.getDaysAtSea());
             // add voyage to a sorted schedule if its arrival date is after the arrivedDateThreshold
             addVoyageToSchedule(newScheduledVoyage(route, departureDate, route.getOriginPort(), route.getDestinationPort()), schedule, arrivedDateThreshold);
+            lastLegOutbound = true;
             // the ship returns back to origin port after it is unloaded and loaded up again
             departureDate = TimeUtils.getInstance().futureDate(arrivalDate, route.getDaysAtPort());
             if ( departureDate.isBefore(endDate) || departureDate.equals(endDate) ) {
                 // add return voyage to a sorted schedule - swap origin with destination port, the ship is going back
                 addVoyageToSchedule(newScheduledVoyage(route, departureDate, route.getDestinationPort(), route.getOriginPort()), schedule, arrivedDateThreshold);
+                lastLegOutbound = false;
                 // calculate departure date for next voyage from origin to destination
                 departureDate = TimeUtils.getInstance().futureDate(departureDate,
                         route.getDaysAtSea() + route.getDaysAtPort());
@@ -83,10 +87,52 @@ public class ShippingScheduler {
         }
         // subtract days at port. When generating new future schedule that would be added
         route.setLastArrival(departureDate);
+        route.setLastLegOutbound(lastLegOutbound);
         // return the last arrival date for this ship. Needed to generate future schedule when
         // we run out of voyages 
         return schedule;
     }
+    /**
+     * Generates voyages of a given ship that depart after its last scheduled voyage and no later
+     * than a given date. Legs alternate direction starting with the opposite of the last voyage.
+     *
+     * @param route - ship route
+     * @param lastVoyage - last scheduled voyage of the ship or null if the ship has none
+     * @param endDate - no voyages beyond this date
+     * @return - new voyages ordered by departure date
+     */
+    public static List<Voyage> extendShipSchedule(final Route route, final Voyage lastVoyage, final Instant endDate) {
+        List<Voyage> voyages = new ArrayList<>();
+        Instant departureDate;
+        boolean outbound;
+        if (lastVoyage == null) {
+            // no voyages left, continue from where the schedule generation stopped
+            if (route.getLastArrival() == null) {
+                return voyages;
+            }
+            departureDate = route.getLastArrival();
+            outbound = !route.isLastLegOutbound();
+        } else {
+            departureDate = TimeUtils.getInstance().futureDate(lastVoyage.getSailDateObject(),
+                    route.getDaysAtSea() + route.getDaysAtPort());
+            outbound = !lastVoyage.getRoute().getOriginPort().equals(route.getOriginPort());
+        }
+        while (departureDate.isBefore(endDate) || departureDate.equals(endDate)) {
+            if (outbound) {
+                voyages.add(newScheduledVoyage(route, departureDate, route.getOriginPort(), route.getDestinationPort()));
+            } else {
+                voyages.add(newScheduledVoyage(route, departureDate, route.getDestinationPort(), route.getOriginPort()));
+            }
+            outbound = !outbound;
+            departureDate = TimeUtils.getInstance().futureDate(departureDate, route.getDaysAtSea() + route.getDaysAtPort());
+        }
+        if (!voyages.isEmpty()) {
+            // keep the route in step in case the ship runs out of scheduled voyages
+            route.setLastArrival(departureDate);
+            route.setLastLegOutbound(!outbound);
+        }
+        return voyages;
+    }
     /**
      * Adds a voyage to a given schedule. Ignore voyages that already arrived before a given date
      *
@@ -0,0 +1,117 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference counted string interning table. Each distinct string is assigned
+ * a small int handle which is recycled once the last reference to it is
+ * released. Handle 0 is reserved for the empty string.
+ */
+public class SymbolTable {
+    public static final int EMPTY = 0;
+
+    private final Map<String, Integer> handles = new HashMap<>();
+    private String[] symbols = new String[16];
+    private int[] references = new int[16];
+    // recycled handles
+    private int[] freeHandles = new int[16];
+    private int freeCount = 0;
+    // next never used handle
+    private int next = 1;
+
+    public SymbolTable() {
+        symbols[EMPTY] = "";
+    }
+
+    /**
+     * Returns a handle for a given string and increments its reference count.
+     *
+     * @param symbol - string to intern
+     * @return - handle of the string
+     */
+    public int acquire(String symbol) {
+        if (symbol == null || symbol.isEmpty()) {
+            return EMPTY;
+        }
+        Integer handle = handles.get(symbol);
+        if (handle != null) {
+            references[handle]++;
+            return handle;
+        }
+        int h;
+        if (freeCount > 0) {
+            h = freeHandles[--freeCount];
+        } else {
+            h = next++;
+            if (h == symbols.length) {
+                symbols = Arrays.copyOf(symbols, h * 2);
+                references = Arrays.copyOf(references, h * 2);
+            }
+        }
+        symbols[h] = symbol;
+        references[h] = 1;
+        handles.put(symbol, h);
+        return h;
+    }
+
+    /**
+     * Decrements reference count of a given handle. The handle is recycled
+     * when its count drops to zero.
+     *
+     * @param handle - handle returned by acquire()
+     */
+    public void release(int handle) {
+        if (handle == EMPTY || --references[handle] > 0) {
+            return;
+        }
+        handles.remove(symbols[handle]);
+        symbols[handle] = null;
+        if (freeCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        }
+        freeHandles[freeCount++] = handle;
+    }
+
+    /**
+     * Looks up handle of a given string without changing its reference count.
+     *
+     * @param symbol - string to look up
+     * @return - handle or EMPTY if the string is not interned
+     */
+    public int handleOf(String symbol) {
+        if (symbol == null) {
+            return EMPTY;
+        }
+        Integer handle = handles.get(symbol);
+        return handle == null ? EMPTY : handle;
+    }
+
+    public String get(int handle) {
+        return symbols[handle];
+    }
+
+    /**
+     * @return - number of distinct strings currently interned
+     */
+    public int size() {
+        return handles.size();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common.time;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Dates in the application are whole UTC days. This class represents a date as an int
+ * number of days since 1970-01-01 so that schedule arithmetic and comparisons are
+ * plain integer operations. ISO-8601 strings like 2021-03-01T00:00:00Z are only used
+ * at the Json edge, parse() reads the date part without going through Instant.parse()
+ * and format() caches recently formatted days.
+ */
+public final class EpochDay {
+    public static final int NONE = Integer.MIN_VALUE;
+    private static final long SECONDS_PER_DAY = 86400;
+    private static final int CACHE_SIZE = 1024;
+    // formatted days indexed by day modulo cache size
+    private static final Formatted[] cache = new Formatted[CACHE_SIZE];
+
+    private EpochDay() {
+    }
+
+    public static int of(Instant date) {
+        return (int) Math.floorDiv(date.getEpochSecond(), SECONDS_PER_DAY);
+    }
+
+    /**
+     * @param date - ISO-8601 instant or date
+     * @return - epoch day of a given date
+     */
+    public static int parse(String date) {
+        int length = date.length();
+        if ((length == 10 || (length > 10 && date.charAt(10) == 'T' && date.charAt(length - 1) == 'Z'))
+                && date.charAt(4) == '-' && date.charAt(7) == '-') {
+            // the UTC date is all that's needed
+            return (int) LocalDate.of(digits(date, 0, 4), digits(date, 5, 7), digits(date, 8, 10)).toEpochDay();
+        }
+        return of(Instant.parse(date));
+    }
+
+    public static Instant toInstant(int epochDay) {
+        return Instant.ofEpochSecond(epochDay * SECONDS_PER_DAY);
+    }
+
+    /**
+     * @param epochDay - epoch day
+     * @return - ISO-8601 instant at midnight of a given day, as produced by Instant.toString()
+     */
+    public static String format(int epochDay) {
+        int slot = Math.floorMod(epochDay, CACHE_SIZE);
+        Formatted formatted = cache[slot];
+        if (formatted == null || formatted.epochDay != epochDay) {
+            formatted = new Formatted(epochDay, toInstant(epochDay).toString());
+            cache[slot] = formatted;
+        }
+        return formatted.text;
+    }
+
+    private static int digits(String date, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = date.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("EpochDay.parse() - invalid date:" + date);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // immutable so that slots can be replaced without synchronization
+    private static final class Formatted {
+        private final int epochDay;
+        private final String text;
+
+        private Formatted(int epochDay, String text) {
+            this.epochDay = epochDay;
+            this.text = text;
+        }
+    }
+}
@@ -68,7 +68,7 @@ public class TimeUtils {
     }
     public boolean isSameDay(Instant date1, Instant date2) {
 
-        return date1.truncatedTo(ChronoUnit.DAYS).equals(date2.truncatedTo(ChronoUnit.DAYS));
+        return EpochDay.of(date1) == EpochDay.of(date2);
     }
     public Instant getDateYearFrom(Instant date) {
         // return date 365 days from now
@@ -78,9 +78,7 @@ public class TimeUtils {
         return now.atOffset(ZoneOffset.UTC).plus(years, ChronoUnit.YEARS).toInstant();
     }
     public long getDaysBetween(String startDate, String endDate) {
-        Instant sd = Instant.parse(startDate);
-        Instant ed = Instant.parse(endDate);
-        return getDaysBetween(sd, ed) ;
+        return EpochDay.parse(endDate) - EpochDay.parse(startDate);
        
     }
     public long getDaysBetween(Instant startDate, Instant endDate) {
@@ -33,6 +33,8 @@ public class Route {
     private int daysAtSea;
     private int daysAtPort;
     private Instant lastArrival;
+    // direction of the last generated voyage, true if from origin to destination port
+    private boolean lastLegOutbound;
     public Route() {
         super();
     }
@@ -49,6 +51,12 @@ public class Route {
     public Instant getLastArrival() {
         return this.lastArrival;
     }
+    public void setLastLegOutbound(boolean lastLegOutbound) {
+        this.lastLegOutbound = lastLegOutbound;
+    }
+    public boolean isLastLegOutbound() {
+        return lastLegOutbound;
+    }
     public Ship getVessel() {
         return vessel;
     }
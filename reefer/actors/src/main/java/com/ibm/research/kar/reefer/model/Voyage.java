@@ -16,6 +16,8 @@
 
 package com.ibm.research.kar.reefer.model;
 
+import com.ibm.research.kar.reefer.common.time.EpochDay;
+
 import java.time.Instant;
 import java.util.Objects;
 
@@ -37,6 +39,9 @@ public class Voyage implements Comparable<Voyage>{
     private String sailDate;
     private String arrivalDate;
     private String displayArrivalDate;
+    // sail and arrival dates as epoch days for schedule arithmetic
+    private int sailDay;
+    private int arrivalDay;
     private int orderCount=0;
     private int reeferCount=0;
     private int progress;
@@ -61,6 +66,8 @@ public class Voyage implements Comparable<Voyage>{
         this.arrivalDate = arrivalDate;
         this.displayArrivalDate = arrivalDate.substring(0,10);
         this.sailDate = sailDateObject.toString().substring(0,10);
+        this.sailDay = EpochDay.of(sailDateObject);
+        this.arrivalDay = EpochDay.parse(arrivalDate);
         this.id = String.format("%s:%s",route.getVessel().getName(),this.sailDate.toString()).replaceAll("/","-");
 
     }
@@ -70,6 +77,8 @@ public class Voyage implements Comparable<Voyage>{
         this.arrivalDate = arrivalDate;
         this.displayArrivalDate = arrivalDate.substring(0,10);
         this.sailDate = sailDateObject.toString().substring(0,10);
+        this.sailDay = EpochDay.of(sailDateObject);
+        this.arrivalDay = EpochDay.parse(arrivalDate);
         this.id = id;
     }
     public String getId() {
@@ -87,6 +96,12 @@ public class Voyage implements Comparable<Voyage>{
     public Instant getSailDateObject() {
         return sailDateObject;
     }
+    public int sailDay() {
+        return sailDay;
+    }
+    public int arrivalDay() {
+        return arrivalDay;
+    }
     public boolean publishedArrival() { return reported; }
     public void setPublishedArrival(boolean reported ) { this.reported = reported; }
     public boolean capacityAvailable(int howManyReefersNeeded) {
@@ -143,13 +158,13 @@ public class Voyage implements Comparable<Voyage>{
         setProgress(progress);
     }
     public boolean shipArrived(Instant shipCurrentDate, VoyageStatus status) {
-        Instant scheduledArrivalDate = Instant.parse(getArrivalDate());
-        return ( !VoyageStatus.ARRIVED.equals(status) && (shipCurrentDate.equals(scheduledArrivalDate)
-                || shipCurrentDate.isAfter(scheduledArrivalDate)));
+        return ( !VoyageStatus.ARRIVED.equals(status) && EpochDay.of(shipCurrentDate) >= arrivalDay);
     }
     public boolean shipArrived(Instant currentDate) {
-        Instant scheduledArrivalDate = Instant.parse(getArrivalDate());
-        return scheduledArrivalDate.isBefore(currentDate);
+        return shipArrived(EpochDay.of(currentDate));
+    }
+    public boolean shipArrived(int currentDay) {
+        return arrivalDay < currentDay;
     }
     public boolean shipArrived() {
         return getProgress() >= 100;
@@ -158,13 +173,10 @@ public class Voyage implements Comparable<Voyage>{
         if ( VoyageStatus.UNKNOWN.equals(status)) {
             return false;
         }
-        Instant scheduledDepartureDate = getSailDateObject();
-        return (!VoyageStatus.DEPARTED.equals(status) && (shipCurrentDate.equals(scheduledDepartureDate)
-                || shipCurrentDate.isAfter(scheduledDepartureDate)));
+        return (!VoyageStatus.DEPARTED.equals(status) && EpochDay.of(shipCurrentDate) >= sailDay);
     }
     public boolean shipDeparted(Instant currentDate) {
-        Instant scheduledDepartureDate = getSailDateObject();
-        return currentDate.equals(scheduledDepartureDate) || scheduledDepartureDate.isBefore(currentDate);
+        return sailDay <= EpochDay.of(currentDate);
     }
     public void setProgress(int progress) {
         this.progress = progress;
@@ -186,7 +198,7 @@ public class Voyage implements Comparable<Voyage>{
 
     @Override
     public int compareTo(Voyage v) {
-        if ( this.getSailDateObject().isBefore(v.getSailDateObject())) {
+        if ( sailDay < v.sailDay ) {
             return -1;
         }
         return 1;
@@ -0,0 +1,244 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.model;
+
+import com.ibm.research.kar.reefer.common.Constants;
+import com.ibm.research.kar.reefer.common.ReeferIdSet;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.io.*;
+import java.util.Base64;
+
+/**
+ * Order booked on a voyage together with the reefers allocated to it. This is
+ * what a VoyageActor keeps in memory and persists for each of its orders. The
+ * persistent form is a compact binary record, Base64 encoded so that it can be
+ * stored as a Json string. Json order objects are only built when an order is
+ * sent to other actors.
+ */
+public class VoyageOrder {
+    // version 1 stored the status ordinal, version 2 stores the status name
+    private static final int VERSION = 2;
+
+    private final String id;
+    private final String correlationId;
+    private final String customerId;
+    private final String product;
+    private final int productQty;
+    private final String date;
+    private final String depot;
+    private final String replyTo;
+    private Order.OrderStatus status;
+    private boolean spoilt;
+    private final ReeferIdSet reefers;
+
+    public VoyageOrder(String id, String correlationId, String customerId, String product, int productQty,
+                       Order.OrderStatus status, String date, String depot, String replyTo, boolean spoilt, ReeferIdSet reefers) {
+        this.id = id;
+        this.correlationId = correlationId;
+        this.customerId = customerId;
+        this.product = product;
+        this.productQty = productQty;
+        this.status = status;
+        this.date = date;
+        this.depot = depot;
+        this.replyTo = replyTo;
+        this.spoilt = spoilt;
+        this.reefers = reefers;
+    }
+
+    /**
+     * Creates voyage order from a depot booking reply
+     *
+     * @param booking - Json booking with the order and its encoded reefers
+     * @return - voyage order
+     */
+    public static VoyageOrder fromBooking(JsonObject booking) {
+        JsonObject order = booking.getJsonObject(Constants.ORDER_KEY);
+        return new VoyageOrder(order.getString(Constants.ORDER_ID_KEY),
+                order.getString(Constants.CORRELATION_ID_KEY, null),
+                order.getString(Constants.ORDER_CUSTOMER_ID_KEY, null),
+                order.getString(Constants.ORDER_PRODUCT_KEY, null),
+                order.getInt(Constants.ORDER_PRODUCT_QTY_KEY, 0),
+                parseStatus(order.getString(Constants.ORDER_STATUS_KEY, null)),
+                order.getString(Constants.ORDER_DATE_KEY, null),
+                order.getString(Constants.DEPOT_KEY, null),
+                order.getString(Constants.REPLY_TO_ENDPOINT_KEY, null),
+                order.getBoolean(Constants.ORDER_SPOILT_KEY, false),
+                ReeferIdSet.decode(booking.getString(Constants.ORDER_REEFERS_KEY, null)));
+    }
+
+    /**
+     * @param encoded - voyage order produced by encode()
+     * @return - decoded voyage order
+     */
+    public static VoyageOrder decode(String encoded) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(encoded)))) {
+            int version = in.readUnsignedByte();
+            if (version != VERSION && version != 1) {
+                throw new IllegalArgumentException("VoyageOrder.decode() - unsupported version:" + version);
+            }
+            String id = in.readUTF();
+            String correlationId = readNullable(in);
+            String customerId = readNullable(in);
+            String product = readNullable(in);
+            int productQty = in.readInt();
+            Order.OrderStatus status = version == 1 ? statusOf(in.readUnsignedByte()) : statusOf(in.readUTF());
+            String date = readNullable(in);
+            String depot = readNullable(in);
+            String replyTo = readNullable(in);
+            boolean spoilt = in.readBoolean();
+            byte[] reefers = new byte[in.readInt()];
+            in.readFully(reefers);
+            return new VoyageOrder(id, correlationId, customerId, product, productQty, status, date, depot, replyTo,
+                    spoilt, ReeferIdSet.fromBytes(reefers));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("VoyageOrder.decode() - invalid voyage order", e);
+        }
+    }
+
+    private static Order.OrderStatus statusOf(String name) {
+        try {
+            return Order.OrderStatus.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("VoyageOrder.decode() - unknown order status:" + name, e);
+        }
+    }
+
+    private static Order.OrderStatus statusOf(int ordinal) {
+        // declaration order of OrderStatus when version 1 was written
+        Order.OrderStatus[] statuses = {Order.OrderStatus.PENDING, Order.OrderStatus.BOOKED, Order.OrderStatus.INTRANSIT,
+                Order.OrderStatus.DELIVERED, Order.OrderStatus.SPOILT};
+        if (ordinal >= statuses.length) {
+            throw new IllegalArgumentException("VoyageOrder.decode() - unknown order status:" + ordinal);
+        }
+        return statuses[ordinal];
+    }
+
+    /**
+     * @return - Base64 encoded binary form of this order
+     */
+    public String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + reefers.size() / 4);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(id);
+            writeNullable(out, correlationId);
+            writeNullable(out, customerId);
+            writeNullable(out, product);
+            out.writeInt(productQty);
+            out.writeUTF(status.name());
+            writeNullable(out, date);
+            writeNullable(out, depot);
+            writeNullable(out, replyTo);
+            out.writeBoolean(spoilt);
+            byte[] reeferBytes = reefers.toBytes();
+            out.writeInt(reeferBytes.length);
+            out.write(reeferBytes);
+        } catch (IOException e) {
+            // not expected when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @param voyageId - id of the voyage the order is booked on
+     * @return - order in the Json form exchanged with other actors
+     */
+    public JsonObject toJson(String voyageId) {
+        JsonObjectBuilder orderBuilder = Json.createObjectBuilder();
+        orderBuilder.add(Constants.ORDER_ID_KEY, id).
+                add(Constants.VOYAGE_ID_KEY, voyageId).
+                add(Constants.ORDER_PRODUCT_QTY_KEY, productQty).
+                add(Constants.ORDER_STATUS_KEY, status.name()).
+                add(Constants.BOOKING_FAILED_KEY, false).
+                add(Constants.ORDER_SPOILT_KEY, spoilt);
+        if (product != null) {
+            orderBuilder.add(Constants.ORDER_PRODUCT_KEY, product);
+        }
+        if (customerId != null) {
+            orderBuilder.add(Constants.ORDER_CUSTOMER_ID_KEY, customerId);
+        }
+        if (date != null) {
+            orderBuilder.add(Constants.ORDER_DATE_KEY, date);
+        }
+        if (depot != null) {
+            orderBuilder.add(Constants.DEPOT_KEY, depot);
+        }
+        if (correlationId != null) {
+            orderBuilder.add(Constants.CORRELATION_ID_KEY, correlationId);
+        }
+        if (replyTo != null) {
+            orderBuilder.add(Constants.REPLY_TO_ENDPOINT_KEY, replyTo);
+        }
+        return orderBuilder.build();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDepot() {
+        return depot;
+    }
+
+    public Order.OrderStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(Order.OrderStatus status) {
+        this.status = status;
+    }
+
+    public boolean isSpoilt() {
+        return spoilt;
+    }
+
+    public void setSpoilt(boolean spoilt) {
+        this.spoilt = spoilt;
+    }
+
+    public ReeferIdSet getReefers() {
+        return reefers;
+    }
+
+    private static Order.OrderStatus parseStatus(String status) {
+        if (status != null) {
+            // orders carry either the status name or its label
+            for (Order.OrderStatus orderStatus : Order.OrderStatus.values()) {
+                if (orderStatus.name().equalsIgnoreCase(status) || orderStatus.getLabel().equalsIgnoreCase(status)) {
+                    return orderStatus;
+                }
+            }
+        }
+        return Order.OrderStatus.PENDING;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReeferFreeListTest {
+
+    @Test
+    public void emptyList() {
+        ReeferFreeList freeList = new ReeferFreeList(0);
+        assertEquals(0, freeList.size());
+        assertEquals(-1, freeList.allocate());
+        assertEquals(-1, freeList.allocateFrom(0));
+        assertEquals(-1, freeList.nextFree(0));
+        assertFalse(freeList.remove(0));
+        assertFalse(freeList.isFree(-1));
+    }
+
+    @Test
+    public void newIndexesAreTaken() {
+        ReeferFreeList freeList = new ReeferFreeList(100);
+        assertEquals(0, freeList.size());
+        assertEquals(0, freeList.nextTaken(0));
+        assertEquals(-1, freeList.allocate());
+    }
+
+    @Test
+    public void releaseAndRemoveAreIdempotent() {
+        ReeferFreeList freeList = new ReeferFreeList(10);
+        freeList.release(3);
+        freeList.release(3);
+        assertEquals(1, freeList.size());
+        assertTrue(freeList.isFree(3));
+        assertTrue(freeList.remove(3));
+        assertFalse(freeList.remove(3));
+        assertEquals(0, freeList.size());
+        assertFalse(freeList.remove(10));
+    }
+
+    @Test
+    public void wordBoundary() {
+        ReeferFreeList freeList = new ReeferFreeList(128);
+        freeList.release(63);
+        freeList.release(64);
+        assertEquals(63, freeList.nextFree(0));
+        assertEquals(64, freeList.nextFree(64));
+        assertEquals(65, freeList.nextTaken(63));
+        assertEquals(63, freeList.allocate());
+        assertEquals(64, freeList.allocate());
+        assertEquals(-1, freeList.allocate());
+        assertEquals(0, freeList.size());
+    }
+
+    @Test
+    public void nextTakenReturnsCapacityWhenAllFree() {
+        ReeferFreeList freeList = new ReeferFreeList(70);
+        for (int i = 0; i < 70; i++) {
+            freeList.release(i);
+        }
+        assertEquals(70, freeList.size());
+        assertEquals(70, freeList.nextTaken(0));
+        assertEquals(70, freeList.nextTaken(65));
+        freeList.remove(66);
+        assertEquals(66, freeList.nextTaken(0));
+        assertEquals(67, freeList.nextFree(66));
+    }
+
+    @Test
+    public void allocateWrapsAroundCursor() {
+        int capacity = 64 * 70;
+        ReeferFreeList freeList = new ReeferFreeList(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeList.release(i);
+        }
+        // move the cursor into the last word
+        for (int i = 0; i < capacity - 1; i++) {
+            assertEquals(i, freeList.allocate());
+        }
+        freeList.release(5);
+        assertEquals(capacity - 1, freeList.allocate());
+        // nothing left after the cursor, the lookup wraps to the start
+        assertEquals(5, freeList.allocate());
+        assertEquals(-1, freeList.allocate());
+    }
+
+    @Test
+    public void allocateFromWrapsAround() {
+        ReeferFreeList freeList = new ReeferFreeList(5000);
+        freeList.release(10);
+        freeList.release(4200);
+        assertEquals(4200, freeList.allocateFrom(4100));
+        assertEquals(10, freeList.allocateFrom(4100));
+        assertEquals(-1, freeList.allocateFrom(0));
+        freeList.release(7);
+        // lookups starting beyond the capacity wrap around too
+        assertEquals(7, freeList.allocateFrom(6000));
+    }
+
+    @Test
+    public void ensureCapacityKeepsFreeIndexes() {
+        ReeferFreeList freeList = new ReeferFreeList(10);
+        freeList.release(9);
+        freeList.ensureCapacity(10000);
+        assertEquals(10000, freeList.capacity());
+        assertTrue(freeList.isFree(9));
+        assertFalse(freeList.isFree(9999));
+        // release grows the bitset on demand
+        freeList.release(20000);
+        assertEquals(20001, freeList.capacity());
+        assertEquals(20000, freeList.nextFree(10));
+        assertEquals(2, freeList.size());
+    }
+
+    @Test
+    public void matchesReferenceModel() {
+        Random random = new Random(11);
+        int capacity = 10000;
+        ReeferFreeList freeList = new ReeferFreeList(capacity);
+        TreeSet<Integer> free = new TreeSet<>();
+        for (int step = 0; step < 50000; step++) {
+            int index = random.nextInt(capacity);
+            switch (random.nextInt(4)) {
+                case 0:
+                    freeList.release(index);
+                    free.add(index);
+                    break;
+                case 1:
+                    assertEquals(free.remove(index), freeList.remove(index));
+                    break;
+                case 2:
+                    int allocated = freeList.allocate();
+                    assertEquals(free.isEmpty(), allocated < 0);
+                    if (allocated >= 0) {
+                        assertTrue(free.remove(allocated));
+                    }
+                    break;
+                default:
+                    Integer expected = free.ceiling(index);
+                    assertEquals(expected == null ? -1 : expected.intValue(), freeList.nextFree(index));
+            }
+            assertEquals(free.size(), freeList.size());
+        }
+    }
+}
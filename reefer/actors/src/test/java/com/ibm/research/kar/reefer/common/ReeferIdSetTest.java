@@ -0,0 +1,164 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReeferIdSetTest {
+    // mirrors ReeferIdSet.MAX_RUNS
+    private static final int MAX_RUNS = 2048;
+
+    @Test
+    public void emptySet() {
+        ReeferIdSet set = new ReeferIdSet();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.size());
+        assertEquals("", set.encode());
+        assertTrue(ReeferIdSet.decode("").isEmpty());
+        assertTrue(ReeferIdSet.decode(null).isEmpty());
+        assertTrue(ReeferIdSet.decode("  ").isEmpty());
+        assertTrue(ReeferIdSet.fromBytes(set.toBytes()).isEmpty());
+        assertTrue(ReeferIdSet.fromBytes(new byte[0]).isEmpty());
+        assertEquals(0, set.toArray().length);
+        assertFalse(set.remove(1));
+        assertFalse(set.contains(0));
+    }
+
+    @Test
+    public void wordBoundaries() {
+        ReeferIdSet set = ReeferIdSet.of(0, 63, 64, 65, 127, 128);
+        assertRoundTrip(set);
+        assertArrayEquals(new int[]{0, 63, 64, 65, 127, 128}, set.toArray());
+        assertEquals("0,63-65,127-128", set.toString());
+    }
+
+    @Test
+    public void containerBoundaries() {
+        ReeferIdSet set = ReeferIdSet.of(65535, 65536, 131071, 131072);
+        assertRoundTrip(set);
+        assertEquals(4, set.size());
+        assertTrue(set.remove(65536));
+        assertFalse(set.contains(65536));
+        assertTrue(set.contains(65535));
+        assertRoundTrip(set);
+    }
+
+    @Test
+    public void rangeAcrossContainers() {
+        ReeferIdSet set = new ReeferIdSet();
+        set.addRange(65530, 65545);
+        assertEquals(16, set.size());
+        assertTrue(set.contains(65535));
+        assertTrue(set.contains(65536));
+        assertFalse(set.contains(65546));
+        assertRoundTrip(set);
+    }
+
+    @Test
+    public void runToBitmapSwitch() {
+        ReeferIdSet set = new ReeferIdSet();
+        // isolated ids, each one is a separate run
+        for (int i = 0; i < MAX_RUNS; i++) {
+            set.add(2 * i);
+        }
+        assertRoundTrip(set);
+        // one more run than a run container holds
+        assertTrue(set.add(2 * MAX_RUNS));
+        assertEquals(MAX_RUNS + 1, set.size());
+        // written as a 65536 bit bitmap
+        assertTrue(set.toBytes().length >= 8192);
+        assertRoundTrip(set);
+        // back below the limit
+        assertTrue(set.remove(2 * MAX_RUNS));
+        assertTrue(set.remove(0));
+        assertEquals(MAX_RUNS - 1, set.size());
+        assertTrue(set.toBytes().length < 8192);
+        assertFalse(set.contains(0));
+        assertTrue(set.contains(2));
+        assertRoundTrip(set);
+        // filling the gaps merges everything into a single run
+        set.addRange(0, 2 * MAX_RUNS);
+        assertEquals(2 * MAX_RUNS + 1, set.size());
+        assertEquals("0-" + 2 * MAX_RUNS, set.toString());
+        assertRoundTrip(set);
+    }
+
+    @Test
+    public void duplicatesAndRemoval() {
+        ReeferIdSet set = new ReeferIdSet();
+        assertTrue(set.add(10));
+        assertFalse(set.add(10));
+        assertTrue(set.remove(10));
+        assertFalse(set.remove(10));
+        assertTrue(set.isEmpty());
+        assertEquals("", set.encode());
+    }
+
+    @Test
+    public void setOperations() {
+        ReeferIdSet a = ReeferIdSet.of(1, 2, 3, 70000);
+        ReeferIdSet b = ReeferIdSet.of(3, 4, 140000);
+        ReeferIdSet union = a.copy().addAll(b);
+        assertArrayEquals(new int[]{1, 2, 3, 4, 70000, 140000}, union.toArray());
+        ReeferIdSet difference = union.copy().removeAll(b);
+        assertEquals(ReeferIdSet.of(1, 2, 70000), difference);
+        // the copy is independent of the original
+        assertEquals(4, a.size());
+        assertTrue(difference.removeAll(a).isEmpty());
+    }
+
+    @Test
+    public void decodesCommaSeparatedIds() {
+        assertEquals(ReeferIdSet.of(1, 5, 7), ReeferIdSet.decode("1, 5,7"));
+        assertEquals(ReeferIdSet.of(1, 5), ReeferIdSet.decode("1,,5,"));
+        assertThrows(IllegalArgumentException.class, () -> ReeferIdSet.decode("1,x"));
+    }
+
+    @Test
+    public void randomRoundTrip() {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            ReeferIdSet set = new ReeferIdSet();
+            TreeSet<Integer> expected = new TreeSet<>();
+            int bound = 1 + random.nextInt(300000);
+            for (int i = random.nextInt(10000); i > 0; i--) {
+                int id = random.nextInt(bound);
+                assertEquals(expected.add(id), set.add(id));
+            }
+            for (int i = random.nextInt(1000); i > 0; i--) {
+                int id = random.nextInt(bound);
+                assertEquals(expected.remove(id), set.remove(id));
+            }
+            assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+            assertRoundTrip(set);
+        }
+    }
+
+    private static void assertRoundTrip(ReeferIdSet set) {
+        ReeferIdSet decoded = ReeferIdSet.decode(set.encode());
+        assertEquals(set, decoded);
+        assertEquals(set.size(), decoded.size());
+        assertEquals(set, ReeferIdSet.fromBytes(set.toBytes()));
+        // decoded sets encode the same way
+        assertEquals(set.encode(), decoded.encode());
+    }
+}
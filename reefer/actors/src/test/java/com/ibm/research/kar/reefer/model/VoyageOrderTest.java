@@ -0,0 +1,111 @@
+/*
+ * Copyright IBM Corporation 2020,2021
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.research.kar.reefer.model;
+
+import com.ibm.research.kar.reefer.common.ReeferIdSet;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VoyageOrderTest {
+
+    @Test
+    public void roundTrip() {
+        ReeferIdSet reefers = ReeferIdSet.of(1, 2, 3, 64, 70000);
+        VoyageOrder order = new VoyageOrder("order-1", "corr-1", "customer", "pharma", 3500,
+                Order.OrderStatus.INTRANSIT, "2021-03-01T00:00:00Z", "Elizabeth", "reply", true, reefers);
+        String encoded = order.encode();
+        VoyageOrder decoded = VoyageOrder.decode(encoded);
+        assertEquals("order-1", decoded.getId());
+        assertEquals("Elizabeth", decoded.getDepot());
+        assertEquals(Order.OrderStatus.INTRANSIT, decoded.getStatus());
+        assertTrue(decoded.isSpoilt());
+        assertEquals(reefers, decoded.getReefers());
+        assertEquals(encoded, decoded.encode());
+    }
+
+    @Test
+    public void roundTripWithoutOptionalFields() {
+        VoyageOrder order = new VoyageOrder("order-2", null, null, null, 0,
+                Order.OrderStatus.BOOKED, null, null, null, false, new ReeferIdSet());
+        VoyageOrder decoded = VoyageOrder.decode(order.encode());
+        assertEquals("order-2", decoded.getId());
+        assertNull(decoded.getDepot());
+        assertEquals(Order.OrderStatus.BOOKED, decoded.getStatus());
+        assertFalse(decoded.isSpoilt());
+        assertTrue(decoded.getReefers().isEmpty());
+        assertEquals(order.encode(), decoded.encode());
+    }
+
+    @Test
+    public void everyStatusRoundTrips() {
+        for (Order.OrderStatus status : Order.OrderStatus.values()) {
+            VoyageOrder order = new VoyageOrder("order", null, null, null, 0, status, null, null, null, false,
+                    ReeferIdSet.of(5));
+            assertEquals(status, VoyageOrder.decode(order.encode()).getStatus());
+        }
+    }
+
+    @Test
+    public void decodesVersion1StatusOrdinal() throws IOException {
+        // version 1 stored the status ordinal, 2 was INTRANSIT
+        VoyageOrder decoded = VoyageOrder.decode(encode(1, out -> out.writeByte(2)));
+        assertEquals(Order.OrderStatus.INTRANSIT, decoded.getStatus());
+        assertEquals(ReeferIdSet.of(7, 8), decoded.getReefers());
+        assertThrows(IllegalArgumentException.class, () -> VoyageOrder.decode(encode(1, out -> out.writeByte(9))));
+    }
+
+    @Test
+    public void rejectsUnknownStatusAndVersion() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> VoyageOrder.decode(encode(2, out -> out.writeUTF("LOST"))));
+        assertThrows(IllegalArgumentException.class, () -> VoyageOrder.decode(encode(3, out -> out.writeUTF("BOOKED"))));
+        assertEquals(Order.OrderStatus.BOOKED, VoyageOrder.decode(encode(2, out -> out.writeUTF("BOOKED"))).getStatus());
+    }
+
+    private interface StatusWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // writes an order record with a given version and status encoding
+    private static String encode(int version, StatusWriter status) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(version);
+            out.writeUTF("order-3");
+            // no correlation id, customer and product
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+            out.writeInt(1000);
+            status.write(out);
+            // no date, depot and reply endpoint
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+            byte[] reefers = ReeferIdSet.of(7, 8).toBytes();
+            out.writeInt(reefers.length);
+            out.write(reefers);
+        }
+        return Base64.getEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+}
@@ -161,6 +161,24 @@ public class VoyageController {
         }
     }
 
+    /**
+     * Returns a summary of an arrived voyage. The voyage actor keeps it until the
+     * voyage is expired from the schedule.
+     *
+     * @param id - voyage id
+     * @return - Json encoded voyage summary
+     */
+    @GetMapping("/voyage/history/{id}")
+    public JsonValue getVoyageHistory(@PathVariable("id") String id) {
+        try {
+            ActorRef voyageActor = Kar.Actors.ref(ReeferAppConfig.VoyageActorType, id);
+            return Kar.Actors.rootCall(voyageActor, "voyageHistory");
+        } catch (Exception e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            throw e;
+        }
+    }
+
     /**
      * Returns all routes
      *
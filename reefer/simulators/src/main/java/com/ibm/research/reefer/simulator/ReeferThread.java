@@ -19,9 +19,9 @@ package com.ibm.research.reefer.simulator;
 //import static com.ibm.research.kar.Kar.actorCall;
 
 import com.ibm.research.kar.Kar;
-import com.ibm.research.kar.actor.ActorRef;
-import com.ibm.research.kar.reefer.ReeferAppConfig;
+import com.ibm.research.kar.reefer.common.AnomalyManagerRouter;
 import com.ibm.research.kar.reefer.common.Constants;
+import com.ibm.research.kar.reefer.common.ReeferIdSet;
 import com.ibm.research.kar.reefer.common.ReeferLoggerFormatter;
 
 import javax.json.Json;
@@ -108,6 +108,12 @@ public class ReeferThread extends Thread {
                             logger.warning("reeferthread: Unable to fetch reefer inventory size - cause:" + e.getMessage());
                             inventorySize = 0;
                         }
+                        try {
+                            // anomalies are routed by reefer id to anomaly manager shards
+                            AnomalyManagerRouter.load();
+                        } catch (Exception e) {
+                            logger.warning("reeferthread: Unable to fetch anomaly manager shards - cause:" + e.getMessage());
+                        }
                         // Get anomaly target for today
                         if (oneshot) {
                             reefersToBreak = 1;
@@ -161,25 +167,25 @@ public class ReeferThread extends Thread {
                     }
 
                     // if not done for the day, generate anomaliesPerUpdate more failures
+                    ReeferIdSet anomalies = new ReeferIdSet();
                     for (int i = 0; i < anomaliesPerUpdate; i++) {
                         if (anomaliesDoneToday < reefersToBreak) {
                             int reeferid = r2b[anomaliesDoneToday++];
-                            ActorRef anomalyManagerActor = Kar.Actors.ref(ReeferAppConfig.AnomalyManagerActorType,
-                                    ReeferAppConfig.AnomalyManagerId);
-                            JsonObject params = Json.createObjectBuilder()
-                                    .add(Constants.REEFER_ID_KEY, reeferid)
-                                    .add(Constants.DATE_KEY, currentDate)
-                                    .build();
-
                             if (logger.isLoggable(Level.FINE)) {
                                 logger.fine("reeferthread: alerting provisioner about anomaly in reefer_" + reeferid);
                             }
-                            try {
-                                //Kar.Actors.call(reeferProvisionerActor, "reeferAnomaly", params);
-                                Kar.Actors.tell(anomalyManagerActor, "reeferAnomaly", params);
-                            } catch (Exception e) {
-                                logger.warning("reeferthread: error sending anomaly " + e.toString());
-                            }
+                            anomalies.add(reeferid);
+                        }
+                    }
+                    if (!anomalies.isEmpty()) {
+                        // one batch per anomaly manager shard
+                        JsonObject params = Json.createObjectBuilder()
+                                .add(Constants.DATE_KEY, currentDate)
+                                .build();
+                        try {
+                            AnomalyManagerRouter.tellAnomalies(anomalies, params);
+                        } catch (Exception e) {
+                            logger.warning("reeferthread: error sending anomalies " + e.toString());
                         }
                     }
                     updatesToDo--;